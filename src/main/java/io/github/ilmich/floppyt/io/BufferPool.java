@@ -0,0 +1,252 @@
+/*
+MIT License
+
+Copyright (c) 2020 Michele Zuccalà
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package io.github.ilmich.floppyt.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.github.ilmich.floppyt.util.ExceptionUtils;
+import io.github.ilmich.floppyt.util.Log;
+import io.github.ilmich.floppyt.web.http.HttpServerDescriptor;
+
+/**
+ * A pool of direct buffers owned by an event loop. Buffers come in power of two
+ * size classes, and each class is refilled by slicing a large direct slab, so
+ * that the loop neither allocates a buffer per read nor lets the JDK copy heap
+ * buffers through its own temporary direct buffers.
+ * 
+ * Not thread safe: buffers must be acquired and released by the loop thread.
+ * The statistics are written by the loop thread only, and can be read by any
+ * thread.
+ */
+public class BufferPool {
+
+	private static final String TAG = "BufferPool";
+
+	/**
+	 * All the pools, used to aggregate statistics
+	 */
+	private static final List<BufferPool> pools = new CopyOnWriteArrayList<BufferPool>();
+
+	/**
+	 * Size of the smallest and of the largest size class
+	 */
+	private static final int MIN_SIZE = 512;
+	private static final int MAX_SIZE = 64 * 1024;
+
+	/**
+	 * Size of the direct slabs sliced into buffers
+	 */
+	private static final int SLAB_SIZE = 256 * 1024;
+
+	/**
+	 * Maximum number of free buffers kept by each size class
+	 */
+	private static final int MAX_FREE = 1024;
+
+	private final ArrayDeque<ByteBuffer>[] classes;
+
+	/**
+	 * Buffers not released yet, with the stack trace of their acquisition (only
+	 * when leak detection is enabled)
+	 */
+	private final Map<ByteBuffer, Leak> outstanding;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong acquired = new AtomicLong();
+	private final AtomicLong released = new AtomicLong();
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public BufferPool() {
+		int count = Integer.numberOfTrailingZeros(MAX_SIZE) - Integer.numberOfTrailingZeros(MIN_SIZE) + 1;
+		classes = new ArrayDeque[count];
+		for (int i = 0; i < count; i++) {
+			classes[i] = new ArrayDeque<ByteBuffer>();
+		}
+		outstanding = HttpServerDescriptor.BUFFER_LEAK_DETECTION ? new IdentityHashMap<ByteBuffer, Leak>() : null;
+		pools.add(this);
+	}
+
+	/**
+	 * @return a cleared buffer of at least the given capacity
+	 */
+	public ByteBuffer acquire(int size) {
+		ByteBuffer buffer;
+		int index = sizeClass(size);
+		if (index < 0) { // too large to be pooled
+			increment(misses);
+			buffer = ByteBuffer.allocateDirect(size);
+		} else {
+			buffer = classes[index].poll();
+			if (buffer != null) {
+				increment(hits);
+			} else {
+				increment(misses);
+				buffer = refill(index);
+			}
+		}
+		increment(acquired);
+		if (outstanding != null) {
+			outstanding.put(buffer, new Leak());
+		}
+		return buffer;
+	}
+
+	/**
+	 * Gives back a buffer acquired from this pool
+	 */
+	public void release(ByteBuffer buffer) {
+		if (outstanding != null && outstanding.remove(buffer) == null) {
+			Log.error(TAG, "Buffer released twice or not acquired from this pool: "
+					+ ExceptionUtils.getStackTrace(new IllegalStateException()));
+			return;
+		}
+		increment(released);
+		int index = sizeClass(buffer.capacity());
+		if (index >= 0 && buffer.isDirect() && (MIN_SIZE << index) == buffer.capacity()
+				&& classes[index].size() < MAX_FREE) {
+			buffer.clear();
+			classes[index].push(buffer); // LIFO, the last used buffer is still warm
+		}
+	}
+
+	/**
+	 * Slices a new slab into buffers of the given class
+	 */
+	private ByteBuffer refill(int index) {
+		int size = MIN_SIZE << index;
+		ByteBuffer slab = ByteBuffer.allocateDirect(Math.max(size, SLAB_SIZE));
+		for (int position = size; position + size <= slab.capacity(); position += size) {
+			slab.limit(position + size).position(position);
+			classes[index].push(slab.slice());
+		}
+		slab.limit(size).position(0);
+		return slab.slice();
+	}
+
+	private static int sizeClass(int size) {
+		if (size > MAX_SIZE) {
+			return -1;
+		}
+		int rounded = size <= MIN_SIZE ? MIN_SIZE : Integer.highestOneBit(size - 1) << 1;
+		return Integer.numberOfTrailingZeros(rounded) - Integer.numberOfTrailingZeros(MIN_SIZE);
+	}
+
+	/**
+	 * Logs the buffers acquired more than maxAge ms ago and never released, with
+	 * the stack trace of their acquisition (only when leak detection is enabled)
+	 * 
+	 * @return the number of leaked buffers
+	 */
+	public int reportLeaks(long maxAge) {
+		if (outstanding == null) {
+			return 0;
+		}
+		int leaks = 0;
+		long now = System.currentTimeMillis();
+		for (Leak leak : outstanding.values()) {
+			if (now - leak.acquiredAt > maxAge && !leak.reported) {
+				leak.reported = true;
+				leaks++;
+				Log.error(TAG, "Buffer leak, acquired at: " + ExceptionUtils.getStackTrace(leak));
+			}
+		}
+		return leaks;
+	}
+
+	/**
+	 * Counts an event: the loop thread is the only writer, so a plain increment
+	 * published with an ordered store is enough
+	 */
+	private static void increment(AtomicLong counter) {
+		counter.lazySet(counter.get() + 1);
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of buffers acquired and not released yet
+	 */
+	public long getOutstanding() {
+		long returned = released.get(); // first, so that it isn't more than acquired
+		return acquired.get() - returned;
+	}
+
+	/**
+	 * @return the pool hits of all the pools
+	 */
+	public static long countHits() {
+		long count = 0;
+		for (BufferPool pool : pools) {
+			count += pool.getHits();
+		}
+		return count;
+	}
+
+	/**
+	 * @return the pool misses of all the pools
+	 */
+	public static long countMisses() {
+		long count = 0;
+		for (BufferPool pool : pools) {
+			count += pool.getMisses();
+		}
+		return count;
+	}
+
+	/**
+	 * @return the outstanding buffers of all the pools
+	 */
+	public static long countOutstanding() {
+		long count = 0;
+		for (BufferPool pool : pools) {
+			count += pool.getOutstanding();
+		}
+		return count;
+	}
+
+	@SuppressWarnings("serial")
+	private static class Leak extends Throwable {
+
+		private final long acquiredAt = System.currentTimeMillis();
+		private boolean reported = false;
+
+		private Leak() {
+			super("buffer acquired");
+		}
+	}
+
+}
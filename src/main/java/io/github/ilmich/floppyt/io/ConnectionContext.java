@@ -0,0 +1,328 @@
+/*
+MIT License
+
+Copyright (c) 2020 Michele Zuccalà
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package io.github.ilmich.floppyt.io;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+import javax.net.ssl.SSLEngine;
+
+import io.github.ilmich.floppyt.io.connectors.ServerConnector;
+import io.github.ilmich.floppyt.io.timeout.Timeout;
+import io.github.ilmich.floppyt.web.http.HttpServerDescriptor;
+import io.github.ilmich.floppyt.web.http.Request;
+import io.github.ilmich.floppyt.web.http.Response;
+
+/**
+ * The state of a client connection, attached to its {@link java.nio.channels.SelectionKey} for
+ * the whole life of the connection and released when it's closed. It is owned
+ * by the loop serving the connection.
+ */
+public class ConnectionContext {
+
+	private final SocketChannel channel;
+
+	/**
+	 * The address of the client, and its bytes in network order, looked up once
+	 * for all the requests of the connection
+	 */
+	private final InetAddress remoteHost;
+	private final byte[] remoteAddress;
+
+	private final long createdAt = System.currentTimeMillis();
+	private long lastReadAt;
+	private long lastWriteAt;
+	private long bytesRead;
+	private long bytesWritten;
+	private int requests;
+
+	/**
+	 * The request being parsed, until it's complete
+	 */
+	private Request request;
+
+	/**
+	 * The responses of the requests received so far (the connection may pipeline
+	 * them), in request order: the head is the one being written
+	 */
+	private final ArrayDeque<PendingResponse> responses = new ArrayDeque<PendingResponse>(2);
+
+	private SSLEngine engine;
+
+	/**
+	 * The encrypted bytes the socket didn't take yet, written before anything
+	 * else is encrypted
+	 */
+	private ByteBuffer sslOutput;
+
+	/**
+	 * The keep-alive timeout of the connection, if any
+	 */
+	private Timeout keepAlive;
+
+	private final ReadSizePredictor readSize = new ReadSizePredictor(HttpServerDescriptor.READ_BUFFER_SIZE,
+			HttpServerDescriptor.MAX_READ_BUFFER_SIZE);
+
+	public ConnectionContext(SocketChannel channel) {
+		this.channel = channel;
+		this.remoteHost = channel.socket().getInetAddress();
+		this.remoteAddress = remoteHost != null ? remoteHost.getAddress() : null;
+	}
+
+	public SocketChannel getChannel() {
+		return channel;
+	}
+
+	public InetAddress getRemoteHost() {
+		return remoteHost;
+	}
+
+	/**
+	 * @return the bytes of the client address (4 for IPv4, 16 for IPv6), shared
+	 *         by the requests of the connection: not to be modified
+	 */
+	public byte[] getRemoteAddress() {
+		return remoteAddress;
+	}
+
+	public long getCreatedAt() {
+		return createdAt;
+	}
+
+	public long getLastReadAt() {
+		return lastReadAt;
+	}
+
+	public long getLastWriteAt() {
+		return lastWriteAt;
+	}
+
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	public int getRequests() {
+		return requests;
+	}
+
+	public void onRead(long bytes) {
+		bytesRead += bytes;
+		lastReadAt = System.currentTimeMillis();
+	}
+
+	public void onWrite(long bytes) {
+		bytesWritten += bytes;
+		lastWriteAt = System.currentTimeMillis();
+	}
+
+	public void onRequest() {
+		requests++;
+	}
+
+	public Request getRequest() {
+		return request;
+	}
+
+	public void setRequest(Request request) {
+		this.request = request;
+	}
+
+	/**
+	 * Reserves the place of the response of a new request
+	 * 
+	 * @param connector the loop serving the connection, which streams the
+	 *                  response if the handler flushes it
+	 */
+	public PendingResponse expectResponse(ServerConnector connector) {
+		PendingResponse pending = new PendingResponse(connector, channel);
+		responses.add(pending);
+		return pending;
+	}
+
+	/**
+	 * @return the response to write next, or null if it's not ready yet
+	 */
+	public Response getResponse() {
+		PendingResponse head = responses.peek();
+		return head != null ? head.response : null;
+	}
+
+	/**
+	 * @return the head of the queue, the response being written
+	 */
+	public PendingResponse peekResponse() {
+		return responses.peek();
+	}
+
+	/**
+	 * @return true if the head of the queue has something to write: the parts
+	 *         streamed so far or the complete response
+	 */
+	public boolean hasOutput() {
+		PendingResponse head = responses.peek();
+		return head != null && (head.response != null || !head.chunks.isEmpty());
+	}
+
+	/**
+	 * Drops the response written (the head of the queue)
+	 */
+	public void finishResponse() {
+		responses.poll();
+	}
+
+	/**
+	 * @return the number of responses not written yet, ready or not
+	 */
+	public int getPendingResponses() {
+		return responses.size();
+	}
+
+	public ReadSizePredictor getReadSizePredictor() {
+		return readSize;
+	}
+
+	public SSLEngine getEngine() {
+		return engine;
+	}
+
+	public void setEngine(SSLEngine engine) {
+		this.engine = engine;
+	}
+
+	/**
+	 * @return the encrypted bytes not written yet, or null
+	 */
+	public ByteBuffer getSslOutput() {
+		return sslOutput;
+	}
+
+	public void setSslOutput(ByteBuffer sslOutput) {
+		this.sslOutput = sslOutput;
+	}
+
+	public Timeout getKeepAlive() {
+		return keepAlive;
+	}
+
+	public void setKeepAlive(Timeout keepAlive) {
+		this.keepAlive = keepAlive;
+	}
+
+	/**
+	 * Drops the state of a closed connection, closing the files still to be sent
+	 * if any
+	 */
+	public void release() {
+		for (PendingResponse pending : responses) {
+			pending.release();
+		}
+		request = null;
+		responses.clear();
+		engine = null;
+		sslOutput = null;
+		keepAlive = null;
+	}
+
+	/**
+	 * The place of a response in the queue of a connection, filled in by the loop
+	 * when the response is complete. A streamed response queues its parts here
+	 * meanwhile.
+	 */
+	public static class PendingResponse {
+
+		private final ServerConnector connector;
+		private final SocketChannel channel;
+		private Response response;
+		private ResponseStream stream; // created on the first flush
+		private final ArrayDeque<ByteBuffer[]> chunks = new ArrayDeque<ByteBuffer[]>(0);
+
+		PendingResponse(ServerConnector connector, SocketChannel channel) {
+			this.connector = connector;
+			this.channel = channel;
+		}
+
+		public void complete(Response response) {
+			this.response = response;
+		}
+
+		public boolean isComplete() {
+			return response != null;
+		}
+
+		public Response getResponse() {
+			return response;
+		}
+
+		/**
+		 * @return the stream of the response, or null if it's not streamed
+		 */
+		public ResponseStream getStream() {
+			return stream;
+		}
+
+		/**
+		 * Called by the producer when it flushes the response the first time: a
+		 * response sent once complete never needs a stream. The loop sees the
+		 * stream once the first part is handed to it.
+		 */
+		public ResponseStream openStream() {
+			if (stream == null) {
+				stream = new ResponseStream(connector, channel, this);
+			}
+			return stream;
+		}
+
+		public void addChunk(ByteBuffer[] chunk) {
+			chunks.add(chunk);
+		}
+
+		/**
+		 * @return the parts streamed and not written yet, the head is written first
+		 */
+		public ArrayDeque<ByteBuffer[]> getChunks() {
+			return chunks;
+		}
+
+		/**
+		 * Drops what is left to write, releasing the producer if it's waiting and
+		 * closing the file to send if any
+		 */
+		public void release() {
+			chunks.clear();
+			if (stream != null) {
+				stream.close();
+			}
+			if (response != null && response.getFileTransfer() != null) {
+				response.getFileTransfer().close();
+			}
+		}
+	}
+
+}
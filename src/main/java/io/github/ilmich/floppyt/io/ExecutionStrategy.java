@@ -0,0 +1,122 @@
+/*
+MIT License
+
+Copyright (c) 2020 Michele Zuccalà
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package io.github.ilmich.floppyt.io;
+
+import java.util.concurrent.Executor;
+
+import io.github.ilmich.floppyt.io.connectors.ServerConnector;
+import io.github.ilmich.floppyt.web.http.HttpServerDescriptor;
+
+/**
+ * Defines where a request read by an event loop is processed. The strategy can
+ * be set for a whole handler (overriding
+ * {@code HttpRequestHandler#getExecutionStrategy}) or for a single route.
+ */
+public class ExecutionStrategy implements Executor {
+
+	/**
+	 * Process the request on the selector thread that has read it. No thread hop
+	 * at all, but the handler must never block or it will stall every connection
+	 * served by the loop.
+	 */
+	public static final ExecutionStrategy INLINE = new ExecutionStrategy("inline", new Executor() {
+		@Override
+		public void execute(Runnable task) {
+			task.run();
+		}
+	}, true);
+
+	/**
+	 * Process the request on the worker pool ({@link ServerConnector#executor}).
+	 * This is the default, unless virtual threads are enabled.
+	 */
+	public static final ExecutionStrategy WORKER = new ExecutionStrategy("worker", new Executor() {
+		@Override
+		public void execute(Runnable task) {
+			ServerConnector.executor.execute(task);
+		}
+	}, false);
+
+	/**
+	 * Process each request on its own virtual thread, for handlers blocking on
+	 * JDBC, files or remote calls: no pool to size and no rejections. Requires
+	 * Java 21 or later, on older runtimes this is the same as {@link #WORKER}.
+	 */
+	public static final ExecutionStrategy VIRTUAL = VirtualThreads.isSupported()
+			? new ExecutionStrategy("virtual", VirtualThreads.newExecutor(), false)
+			: WORKER;
+
+	private final String name;
+	private final Executor executor;
+	private final boolean inline;
+
+	protected ExecutionStrategy(String name, Executor executor, boolean inline) {
+		super();
+		this.name = name;
+		this.executor = executor;
+		this.inline = inline;
+	}
+
+	/**
+	 * @return the strategy of the handlers that don't choose one:
+	 *         {@link #VIRTUAL} if {@link HttpServerDescriptor#USE_VIRTUAL_THREADS}
+	 *         is set, {@link #WORKER} otherwise
+	 */
+	public static ExecutionStrategy getDefault() {
+		return HttpServerDescriptor.USE_VIRTUAL_THREADS ? VIRTUAL : WORKER;
+	}
+
+	/**
+	 * @return true if the runtime supports virtual threads
+	 */
+	public static boolean isVirtualSupported() {
+		return VirtualThreads.isSupported();
+	}
+
+	/**
+	 * Process the requests on a custom executor, e.g. a dedicated pool for slow
+	 * handlers.
+	 */
+	public static ExecutionStrategy custom(Executor executor) {
+		return new ExecutionStrategy("custom", executor, false);
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		executor.execute(task);
+	}
+
+	/**
+	 * @return true if requests are processed on the selector thread
+	 */
+	public boolean isInline() {
+		return inline;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+}
@@ -0,0 +1,143 @@
+/*
+MIT License
+
+Copyright (c) 2020 Michele Zuccalà
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package io.github.ilmich.floppyt.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+
+import io.github.ilmich.floppyt.util.Closeables;
+
+/**
+ * The file body of a response: regions of the file, possibly with buffers
+ * between them (multipart bodies), sent in order with
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)}. The transfer
+ * resumes where it stopped when the socket is writable again.
+ */
+public class FileTransfer {
+
+	private final FileChannel file;
+	private final ArrayDeque<Object> parts = new ArrayDeque<Object>(); // ByteBuffer or Region
+	private long length;
+
+	public FileTransfer(FileChannel file) {
+		this.file = file;
+	}
+
+	/**
+	 * Opens the file, the regions to send are added next
+	 */
+	public static FileTransfer open(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		return new FileTransfer(in.getChannel());
+	}
+
+	public FileTransfer addRegion(long position, long count) {
+		parts.add(new Region(position, count));
+		length += count;
+		return this;
+	}
+
+	public FileTransfer addBuffer(ByteBuffer buffer) {
+		parts.add(buffer);
+		length += buffer.remaining();
+		return this;
+	}
+
+	/**
+	 * @return the number of bytes of the whole transfer
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	public FileChannel getFile() {
+		return file;
+	}
+
+	/**
+	 * Writes as much as the target accepts.
+	 * 
+	 * @return the number of bytes written
+	 * @throws IOException if the file has been truncated meanwhile
+	 */
+	public long transferTo(WritableByteChannel target) throws IOException {
+		long written = 0;
+		while (!parts.isEmpty()) {
+			Object part = parts.peek();
+			if (part instanceof ByteBuffer) {
+				ByteBuffer buffer = (ByteBuffer) part;
+				written += target.write(buffer);
+				if (buffer.hasRemaining()) { // target full
+					return written;
+				}
+			} else {
+				Region region = (Region) part;
+				long bytes = file.transferTo(region.position, region.remaining, target);
+				written += bytes;
+				region.position += bytes;
+				region.remaining -= bytes;
+				if (region.remaining > 0) {
+					if (bytes > 0) {
+						continue;
+					}
+					if (region.position >= file.size()) {
+						throw new IOException("File truncated while being sent");
+					}
+					return written; // target full
+				}
+			}
+			parts.poll();
+		}
+		return written;
+	}
+
+	/**
+	 * @return true if everything has been written
+	 */
+	public boolean isDone() {
+		return parts.isEmpty();
+	}
+
+	public void close() {
+		parts.clear();
+		Closeables.closeQuietly(file);
+	}
+
+	private static class Region {
+
+		long position;
+		long remaining;
+
+		Region(long position, long count) {
+			this.position = position;
+			this.remaining = count;
+		}
+	}
+
+}
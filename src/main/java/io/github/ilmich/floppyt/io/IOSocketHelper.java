@@ -40,11 +40,31 @@ public class IOSocketHelper {
 		int bytesWritten = -1;
 
 		bytesWritten = channel.write(buffer);
-		if (buffer.hasRemaining()) {
-			buffer.compact();
-		}
+		// what remains is sent from the current position by the next call
 
 		return bytesWritten;
 	}
 
+	/**
+	 * Gathering write of the buffers, in order, with a single system call.
+	 * 
+	 * @return the number of bytes written, the buffers not (completely) written
+	 *         keep their remaining bytes for the next call
+	 */
+	public static long writeBuffers(ByteBuffer[] buffers, SocketChannel channel) throws IOException {
+		return channel.write(buffers);
+	}
+
+	/**
+	 * @return true if none of the buffers has bytes left to write
+	 */
+	public static boolean isWritten(ByteBuffer[] buffers) {
+		for (ByteBuffer buffer : buffers) {
+			if (buffer.hasRemaining()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 }
@@ -24,19 +24,19 @@ SOFTWARE.
 package io.github.ilmich.floppyt.io;
 
 import java.io.IOException;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
-import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-import java.util.function.BiConsumer;
+import java.util.ArrayDeque;
+import java.util.concurrent.RejectedExecutionException;
 
+import io.github.ilmich.floppyt.io.ConnectionContext.PendingResponse;
 import io.github.ilmich.floppyt.io.connectors.ServerConnector;
+import io.github.ilmich.floppyt.metrics.Counter;
+import io.github.ilmich.floppyt.metrics.Metrics;
 import io.github.ilmich.floppyt.util.ExceptionUtils;
 import io.github.ilmich.floppyt.util.Log;
 import io.github.ilmich.floppyt.web.http.HttpServerDescriptor;
@@ -46,6 +46,8 @@ import io.github.ilmich.floppyt.web.http.Response;
 public class PlainIOHandler implements IOHandler {
 	
 	private static final String TAG = "PlainIOHandler";
+
+	private static final Counter REJECTED = Metrics.counter("requests_rejected_total").labels();
 	
 	private ServerConnector connector = null;
 
@@ -62,9 +64,12 @@ public class PlainIOHandler implements IOHandler {
 			SocketChannel clientChannel = ((ServerSocketChannel) key.channel()).accept();
 			if (clientChannel.isOpen()) {
 				clientChannel.configureBlocking(false);	
+				// a file body follows its headers in a second write, don't let
+				// Nagle hold it until the client acknowledges the headers
+				clientChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
 				
-				// register channel for reading
-				connector.registerChannel(clientChannel, SelectionKey.OP_READ);
+				// register channel for reading on the loop that will serve it
+				connector.dispatch(clientChannel);
 			}
 			//set keepalive timeout for all incoming connections 
 			//(not only valid http requests)
@@ -88,110 +93,187 @@ public class PlainIOHandler implements IOHandler {
 	@Override
 	public void handleRead(SelectionKey key) throws IOException {
 		final SocketChannel client = (SocketChannel) key.channel();
-		final ByteBuffer readBuffer = ByteBuffer.allocate(HttpServerDescriptor.READ_BUFFER_SIZE);
+		final ConnectionContext context = (ConnectionContext) key.attachment();
+		final ReadSizePredictor readSize = context.getReadSizePredictor();
+		final BufferPool pool = connector.getBufferPool();
 		try {
-			if (IOSocketHelper.readBuffer(readBuffer, client) < 0) {
-				//ignore empty requests
-				key.cancel();
-				return;
-			}
+			// read until the channel is drained, too many responses are pending or
+			// the budget of this event is spent (the selector reports the rest)
+			for (int reads = 0; reads < HttpServerDescriptor.MAX_READS_PER_EVENT; reads++) {
+				ByteBuffer readBuffer = pool.acquire(readSize.nextSize());
+				try {
+					int bytesRead = IOSocketHelper.readBuffer(readBuffer, client);
+					if (bytesRead < 0) {
+						//client closed the connection
+						connector.closeChannel(client);
+						return;
+					}
+					if (bytesRead == 0) {
+						break;
+					}
+					context.onRead(bytesRead);
+					readSize.record(bytesRead);
 
-			if (connector.hasKeepAliveTimeout(client)) { // prolong keep-alive timeout
-				connector.prolongKeepAliveTimeout(client);
-			}
+					if (reads == 0 && connector.hasKeepAliveTimeout(context)) { // prolong keep-alive timeout
+						connector.prolongKeepAliveTimeout(context);
+					}
 
-			final Request req = protocol.onRead(readBuffer, client);
-			if (req != null) { // response completed
-				
-				final CompletableFuture<Response> future = new CompletableFuture<Response>();
-
-				ServerConnector.executor.submit(new Runnable() {
-					@Override
-					public void run() {
-						try {
-							future.complete(protocol.processRequest(req));
-						} catch (Throwable ex) {
-							future.completeExceptionally(ex);
+					// a buffer can hold several pipelined requests
+					Request req;
+					while ((req = protocol.onRead(readBuffer, context)) != null) {
+						process(key, req);
+						if (!key.isValid() || !readBuffer.hasRemaining()) {
+							break;
 						}
 					}
-				});
-
-				future.whenCompleteAsync(new BiConsumer<Response, Throwable>() {
-
-					@Override
-					public void accept(Response t, Throwable u) {
-						if (t != null) {
-							try {								
-								connector.registerChannel(client, SelectionKey.OP_WRITE, t);
-							} catch (IOException ex) {
-								Log.error(TAG, "Error when processing request: " + ExceptionUtils.getStackTrace(ex));
-								Log.error(TAG, req.toString());
-								connector.removeKeepAliveTimeout(client);
-								connector.closeChannel(client);
-							}
-						} else {
-							Log.error(TAG, "Error when processing request: " + ExceptionUtils.getStackTrace(u));
-							Log.error(TAG, req.toString());
-							connector.removeKeepAliveTimeout(client);
-							connector.closeChannel(client);
-						}
-
+					if (!key.isValid() || (key.interestOps() & SelectionKey.OP_READ) == 0) {
+						break; // closed, or reads suspended
 					}
-
-				});
-				
+					if (bytesRead < readBuffer.capacity()) { // drained
+						break;
+					}
+				} finally {
+					pool.release(readBuffer); // the parser has copied what it needs
+				}
 			}
 
 		} catch (ClosedChannelException ex) {
 			Log.trace(TAG, "ClosedChannelException when reading: client disconnect");
-			connector.removeKeepAliveTimeout(client);
 			throw ex;
 		} catch (IOException ex) {
 			Log.error(TAG, "IOException when reading: " + ex.getMessage());
-			connector.removeKeepAliveTimeout(client);
 			throw ex;
 		}
 	}
 
+	/**
+	 * Processes the request where its handler wants, then hands the response
+	 * back to the loop, which writes it in the order the requests came in.
+	 * Reads are suspended while too many responses are pending.
+	 */
+	private void process(SelectionKey key, final Request req) {
+		final SocketChannel client = (SocketChannel) key.channel();
+		final ConnectionContext context = (ConnectionContext) key.attachment();
+		final PendingResponse pending = context.expectResponse(connector);
+		context.onRequest();
+		connector.suspendKeepAliveTimeout(context); // until its responses are written
+		if (context.getPendingResponses() >= HttpServerDescriptor.MAX_PIPELINED_REQUESTS) {
+			key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+		}
+
+		final ExecutionStrategy strategy = protocol.getExecutionStrategy(req);
+		final Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Response response = protocol.processRequest(req, pending);
+					connector.writeResponse(client, pending, response);
+				} catch (Throwable ex) {
+					Log.error(TAG, "Error when processing request: " + ExceptionUtils.getStackTrace(ex));
+					Log.error(TAG, req.toString());
+					connector.closeChannel(client);
+				}
+			}
+		};
+		try {
+			strategy.execute(task);
+		} catch (RejectedExecutionException ex) { // overloaded
+			ByteBuffer overload = protocol.getOverloadResponse();
+			if (overload != null) {
+				reject(client, overload);
+			} else {
+				connector.defer(key, strategy, task);
+			}
+		}
+	}
+
+	/**
+	 * Writes the overload response, as much as the socket accepts without
+	 * blocking, and closes the connection
+	 */
+	private void reject(SocketChannel client, ByteBuffer overload) {
+		REJECTED.increment();
+		try {
+			client.write(overload);
+		} catch (IOException ex) {
+			Log.trace(TAG, "IOException when rejecting request: " + ex.getMessage());
+		}
+		connector.closeChannel(client);
+	}
+
 	@Override
 	public void handleWrite(SelectionKey key) throws IOException {
-		if (key.attachment() == null)
-			return;
-		
+		ConnectionContext context = (ConnectionContext) key.attachment();
+		// write the ready responses in order, until the socket is full
+		while (key.isValid() && context.hasOutput()) {
+			if (!writeResponse(key, context)) {
+				break;
+			}
+		}
+		if (key.isValid()) { // wait for the socket only while bytes remain
+			int ops = key.interestOps();
+			key.interestOps(context.hasOutput() ? ops | SelectionKey.OP_WRITE : ops & ~SelectionKey.OP_WRITE);
+		}
+	}
+
+	/**
+	 * Writes the parts streamed so far, then the complete response.
+	 * 
+	 * @return true if the response at the head of the queue has been written
+	 *         completely
+	 */
+	private boolean writeResponse(SelectionKey key, ConnectionContext context) throws IOException {
 		boolean finished = false;
 		SocketChannel client = (SocketChannel) key.channel();
 		try {
-			if (key.attachment() instanceof Response) {
-				Response response = (Response) key.attachment();
-				ByteBuffer writeBuffer = (ByteBuffer) response.getResponseData().getByteBuffer();
-
-				IOSocketHelper.writeBuffer(writeBuffer, client);
-				if (!writeBuffer.hasRemaining()) {
-					if (!(finished = response.getFile() == null)) {
-							FileChannel channel = (FileChannel) response.getFile();
-							long bytesWritten = channel.transferTo(channel.position(), channel.size(), client);
-							if (!(finished = bytesWritten < channel.size())) {
-									channel.position(channel.position() + bytesWritten);
-							} else {
-								channel.close();
-							}
-					}
+			PendingResponse pending = context.peekResponse();
+			ArrayDeque<ByteBuffer[]> chunks = pending.getChunks();
+			while (!chunks.isEmpty()) {
+				ByteBuffer[] chunk = chunks.peek();
+				long bytesWritten = IOSocketHelper.writeBuffers(chunk, client);
+				context.onWrite(bytesWritten);
+				pending.getStream().onWritten(bytesWritten);
+				if (!IOSocketHelper.isWritten(chunk)) {
+					return false;
 				}
-				if (finished) {
-					this.finishRequest(key);
+				chunks.poll();
+			}
+			Response response = pending.getResponse();
+			if (response == null) { // still streaming
+				return false;
+			}
+			ByteBuffer[] writeBuffers = response.getByteBuffers();
+
+			if (!IOSocketHelper.isWritten(writeBuffers)) {
+				context.onWrite(IOSocketHelper.writeBuffers(writeBuffers, client));
+			}
+			if (IOSocketHelper.isWritten(writeBuffers)) {
+				FileTransfer transfer = response.getFileTransfer();
+				if (transfer != null) { // zero-copy, resumed on the next OP_WRITE
+					context.onWrite(transfer.transferTo(client));
+					if (finished = transfer.isDone()) {
+						transfer.close();
+					}
+				} else {
+					finished = true;
 				}
-		}
+			}
+			if (finished) {
+				this.finishRequest(key);
+			}
+			return finished;
 
 		} catch (IOException ex) {
 			Log.error(TAG, "Error writing on channel: " + ex.getMessage());
-			connector.removeKeepAliveTimeout(client);
 			throw ex;
 		}
 	}
 
 	public void finishRequest(SelectionKey key) throws IOException {
-		if (key.attachment() != null && key.attachment() instanceof Response) {
-			Response response = (Response) key.attachment();
+		ConnectionContext context = (ConnectionContext) key.attachment();
+		Response response = context.getResponse();
+		if (response != null) {
+			context.finishResponse();
 			connector.closeOrRegisterForRead(key, response.isKeepAlive());
 		}
 	}
@@ -24,15 +24,48 @@ SOFTWARE.
 package io.github.ilmich.floppyt.io;
 
 import java.nio.ByteBuffer;
-import java.nio.channels.SocketChannel;
 
+import io.github.ilmich.floppyt.io.ConnectionContext.PendingResponse;
 import io.github.ilmich.floppyt.web.http.Request;
 import io.github.ilmich.floppyt.web.http.Response;
 
 public abstract class Protocol {
 
-	public abstract Request onRead(final ByteBuffer buffer, SocketChannel client);
+	/**
+	 * Parses the data read from a connection.
+	 * 
+	 * @param buffer  the data read
+	 * @param context the state of the connection, which holds the request being
+	 *                parsed between reads
+	 * @return the request, when it's complete
+	 */
+	public abstract Request onRead(final ByteBuffer buffer, ConnectionContext context);
 
 	public abstract Response processRequest(final Request request);
 
+	/**
+	 * Processes the request, the handler can send the response through the
+	 * stream of its pending place while it's being produced. By default the
+	 * response is sent once complete.
+	 */
+	public Response processRequest(final Request request, final PendingResponse pending) {
+		return processRequest(request);
+	}
+
+	/**
+	 * @return the strategy used to process the given request
+	 */
+	public ExecutionStrategy getExecutionStrategy(final Request request) {
+		return ExecutionStrategy.getDefault();
+	}
+
+	/**
+	 * @return the serialized response written by the event loop, instead of
+	 *         waiting, when a request is refused because the server is
+	 *         overloaded, or null to wait
+	 */
+	public ByteBuffer getOverloadResponse() {
+		return null;
+	}
+
 }
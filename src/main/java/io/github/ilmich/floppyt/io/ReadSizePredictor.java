@@ -0,0 +1,76 @@
+/*
+MIT License
+
+Copyright (c) 2020 Michele Zuccalà
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package io.github.ilmich.floppyt.io;
+
+/**
+ * Guesses the size of the next read of a connection from the history of its
+ * reads: the size grows fast (four times) as soon as a read fills the buffer,
+ * and shrinks slowly (by half) only after two consecutive reads that would have
+ * fit in the smaller size. Sizes are powers of two, matching the size classes
+ * of the {@link BufferPool}.
+ */
+public class ReadSizePredictor {
+
+	private static final int MIN_SIZE = 512;
+
+	private final int maxSize;
+	private int size;
+	private boolean shrink = false;
+
+	public ReadSizePredictor(int initialSize, int maxSize) {
+		this.maxSize = Math.max(MIN_SIZE, maxSize);
+		this.size = Math.min(this.maxSize, roundUp(initialSize));
+	}
+
+	/**
+	 * @return the size of the buffer for the next read
+	 */
+	public int nextSize() {
+		return size;
+	}
+
+	/**
+	 * Records the number of bytes of the last read
+	 */
+	public void record(int bytes) {
+		if (bytes >= size) {
+			size = Math.min(maxSize, size << 2);
+			shrink = false;
+		} else if (bytes <= size >> 1 && size > MIN_SIZE) {
+			if (shrink) {
+				size >>= 1;
+				shrink = false;
+			} else {
+				shrink = true;
+			}
+		} else {
+			shrink = false;
+		}
+	}
+
+	private static int roundUp(int size) {
+		return size <= MIN_SIZE ? MIN_SIZE : Integer.highestOneBit(size - 1) << 1;
+	}
+
+}
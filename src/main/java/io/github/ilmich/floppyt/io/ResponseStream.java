@@ -0,0 +1,147 @@
+/*
+MIT License
+
+Copyright (c) 2020 Michele Zuccalà
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package io.github.ilmich.floppyt.io;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.github.ilmich.floppyt.io.ConnectionContext.PendingResponse;
+import io.github.ilmich.floppyt.io.connectors.ServerConnector;
+import io.github.ilmich.floppyt.web.http.HttpServerDescriptor;
+
+/**
+ * Sends the parts of a response, in order, while it's being produced. The
+ * parts are written by the loop of the connection when the responses of the
+ * earlier requests are written.
+ * 
+ * The bytes handed to the loop and not written yet are bounded: a producer
+ * going past {@link HttpServerDescriptor#WRITE_HIGH_WATERMARK} is paused until
+ * they drop to {@link HttpServerDescriptor#WRITE_LOW_WATERMARK}. A producer
+ * running on the loop itself is never paused.
+ *
+ * The keep-alive timeout of the connection is suspended until the stream is
+ * closed and written, so a stream can last longer than
+ * {@link HttpServerDescriptor#KEEP_ALIVE_TIMEOUT}.
+ */
+public class ResponseStream {
+
+	private final ServerConnector connector;
+	private final SocketChannel channel;
+	private final PendingResponse pending;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition drained = lock.newCondition();
+	private long queued; // bytes handed to the loop and not written yet
+	private boolean closed;
+
+	ResponseStream(ServerConnector connector, SocketChannel channel, PendingResponse pending) {
+		this.connector = connector;
+		this.channel = channel;
+		this.pending = pending;
+	}
+
+	/**
+	 * Hands the buffers to the loop, which owns them from now on, waiting first
+	 * if too many bytes are queued.
+	 * 
+	 * @return the number of bytes queued, or -1 if the connection is closed
+	 */
+	public long write(ByteBuffer... buffers) {
+		long bytes = 0;
+		for (ByteBuffer buffer : buffers) {
+			bytes += buffer.remaining();
+		}
+		lock.lock();
+		try {
+			if (closed) {
+				return -1;
+			}
+			queued += bytes;
+		} finally {
+			lock.unlock();
+		}
+		connector.writeChunk(channel, pending, buffers);
+		if (!connector.inLoop()) {
+			awaitDrain();
+		}
+		return bytes;
+	}
+
+	private void awaitDrain() {
+		lock.lock();
+		try {
+			if (queued <= HttpServerDescriptor.WRITE_HIGH_WATERMARK) {
+				return;
+			}
+			while (!closed && queued > HttpServerDescriptor.WRITE_LOW_WATERMARK) {
+				drained.await();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Called by the loop when bytes of the stream are written
+	 */
+	public void onWritten(long bytes) {
+		lock.lock();
+		try {
+			queued -= bytes;
+			if (queued <= HttpServerDescriptor.WRITE_LOW_WATERMARK) {
+				drained.signalAll();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Called by the loop when the connection is closed: the producer is released
+	 * and what it writes from now on is dropped
+	 */
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			drained.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public boolean isClosed() {
+		lock.lock();
+		try {
+			return closed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+}
@@ -25,21 +25,23 @@ package io.github.ilmich.floppyt.io;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.net.StandardSocketOptions;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
 import java.security.KeyManagementException;
 import java.security.KeyStore;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
-import java.util.concurrent.CompletableFuture;
+import java.util.ArrayDeque;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.function.BiConsumer;
 
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
@@ -51,6 +53,7 @@ import javax.net.ssl.SSLSession;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
 
+import io.github.ilmich.floppyt.io.ConnectionContext.PendingResponse;
 import io.github.ilmich.floppyt.io.connectors.ServerConnector;
 import io.github.ilmich.floppyt.util.ExceptionUtils;
 import io.github.ilmich.floppyt.util.Log;
@@ -115,13 +118,16 @@ public class SSLIOHandler implements IOHandler {
 			SocketChannel clientChannel = ((ServerSocketChannel) key.channel()).accept();
 			if (clientChannel.isOpen()) {
 				clientChannel.configureBlocking(false);
+				clientChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
 
 				SSLEngine engine = context.createSSLEngine();
 				engine.setUseClientMode(false);
 				engine.beginHandshake();
 
 				if (doHandshake(clientChannel, engine)) {
-					connector.registerChannel(clientChannel, SelectionKey.OP_READ, engine);
+					ConnectionContext context = new ConnectionContext(clientChannel);
+					context.setEngine(engine);
+					connector.dispatch(clientChannel, context);
 				} else {
 					connector.closeChannel(clientChannel);
 					Log.debug("Connection closed due to handshake failure.");
@@ -150,20 +156,23 @@ public class SSLIOHandler implements IOHandler {
 	@Override
 	public void handleRead(SelectionKey key) throws IOException {
 		final SocketChannel client = (SocketChannel) key.channel();
+		final ConnectionContext context = (ConnectionContext) key.attachment();
 
 		try {
 			peerNetData.clear();
-			if (IOSocketHelper.readBuffer(peerNetData, client) < 0) {
-				// ignore empty requests
-				key.cancel();
+			int bytesRead = IOSocketHelper.readBuffer(peerNetData, client);
+			if (bytesRead < 0) {
+				// client closed the connection
+				connector.closeChannel(client);
 				return;
 			}
+			context.onRead(bytesRead);
 
-			if (connector.hasKeepAliveTimeout(client)) { // prolong keep-alive timeout
-				connector.prolongKeepAliveTimeout(client);
+			if (connector.hasKeepAliveTimeout(context)) { // prolong keep-alive timeout
+				connector.prolongKeepAliveTimeout(context);
 			}
 
-			SSLEngine engine = (SSLEngine) key.attachment();
+			final SSLEngine engine = context.getEngine();
 			if (engine == null) {
 				return;
 				
@@ -174,48 +183,41 @@ public class SSLIOHandler implements IOHandler {
 				switch (result.getStatus()) {
 				case OK:
 					peerAppData.flip();
-					final Request req = protocol.onRead(peerAppData, client);
-					if (req != null) { // response completed
-
-						final CompletableFuture<Response> future = new CompletableFuture<Response>();
+					// the decrypted data can hold several pipelined requests
+					Request parsed;
+					while ((parsed = protocol.onRead(peerAppData, context)) != null) {
+						final Request req = parsed;
+						final PendingResponse pending = context.expectResponse(connector);
+						context.onRequest();
+						connector.suspendKeepAliveTimeout(context); // until its responses are written
+						if (context.getPendingResponses() >= HttpServerDescriptor.MAX_PIPELINED_REQUESTS) {
+							// the records already read are served, the socket waits for the queue to drain
+							key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+						}
 
-						executor.submit(new Runnable() {
+						final ExecutionStrategy strategy = protocol.getExecutionStrategy(req);
+						final Runnable task = new Runnable() {
 							@Override
 							public void run() {
 								try {
-									future.complete(protocol.processRequest(req));
+									Response response = protocol.processRequest(req, pending);
+									response.setSSLEngine(engine);
+									connector.writeResponse(client, pending, response);
 								} catch (Throwable ex) {
-									future.completeExceptionally(ex);
-								}
-							}
-						});
-
-						future.whenCompleteAsync(new BiConsumer<Response, Throwable>() {
-
-							@Override
-							public void accept(Response t, Throwable u) {
-								if (t != null) {
-									try {
-										t.setSSLEngine(engine);
-										connector.registerChannel(client, SelectionKey.OP_WRITE, t);
-									} catch (IOException ex) {
-										Log.error(TAG,
-												"Error when processing request: " + ExceptionUtils.getStackTrace(ex));
-										Log.error(TAG, req.toString());
-										connector.removeKeepAliveTimeout(client);
-										connector.closeChannel(client);
-									}
-								} else {
-									Log.error(TAG, "Error when processing request: " + ExceptionUtils.getStackTrace(u));
+									Log.error(TAG, "Error when processing request: " + ExceptionUtils.getStackTrace(ex));
 									Log.error(TAG, req.toString());
-									connector.removeKeepAliveTimeout(client);
 									connector.closeChannel(client);
 								}
-
 							}
-
-						});
-
+						};
+						try {
+							strategy.execute(task);
+						} catch (RejectedExecutionException ex) { // overloaded, wait for room
+							connector.defer(key, strategy, task);
+						}
+						if (!peerAppData.hasRemaining()) {
+							break;
+						}
 					}
 					break;
 				case BUFFER_OVERFLOW:
@@ -235,68 +237,162 @@ public class SSLIOHandler implements IOHandler {
 			}
 		} catch (ClosedChannelException ex) {
 			Log.trace(TAG, "ClosedChannelException when reading: client disconnect");
-			connector.removeKeepAliveTimeout(client);
 			throw ex;
 		} catch (IOException ex) {
 			Log.error(TAG, "IOException when reading: " + ex.getMessage());
-			connector.removeKeepAliveTimeout(client);
 			throw ex;
 		}
 	}
 
 	@Override
 	public void handleWrite(SelectionKey key) throws IOException {
-		if (key.attachment() == null)
-			return;
-
+		ConnectionContext context = (ConnectionContext) key.attachment();
 		SocketChannel client = (SocketChannel) key.channel();
 		try {
-			if (key.attachment() instanceof Response) {
-
-				Response response = (Response) key.attachment();
-				ByteBuffer writeBuffer = (ByteBuffer) response.getResponseData().getByteBuffer();
-
-				while (writeBuffer.hasRemaining()) {
-					// The loop has a meaning for (outgoing) messages larger than 16KB.
-					// Every wrap call will remove 16KB from the original message and send it to the
-					// remote peer.
-					myNetData.clear();
-					SSLEngineResult result = response.getSSLEngine().wrap(writeBuffer, myNetData);
-					switch (result.getStatus()) {
-					case OK:
-						myNetData.flip();
-						while (myNetData.hasRemaining()) {
-							client.write(myNetData);
-						}
+			// what the socket didn't take last time goes first, then the ready
+			// responses in order, until the socket is full
+			if (flushSslOutput(client, context)) {
+				while (key.isValid() && context.hasOutput()) {
+					if (!writeResponse(key, context)) {
 						break;
-					case BUFFER_OVERFLOW:
-						myNetData = enlargePacketBuffer(response.getSSLEngine(), myNetData);
-						break;
-					case BUFFER_UNDERFLOW:
-						throw new SSLException(
-								"Buffer underflow occured after a wrap. I don't think we should ever get here.");
-					case CLOSED:
-						connector.closeChannel(client);
-						return;
-					default:
-						throw new IllegalStateException("Invalid SSL status: " + result.getStatus());
 					}
 				}
-
-				this.finishRequest(key);
 			}
-
+			if (key.isValid()) { // wait for the socket only while bytes remain
+				int ops = key.interestOps();
+				boolean output = context.hasOutput() || context.getSslOutput() != null;
+				key.interestOps(output ? ops | SelectionKey.OP_WRITE : ops & ~SelectionKey.OP_WRITE);
+			}
 		} catch (IOException ex) {
 			Log.error(TAG, "Error writing on channel: " + ex.getMessage());
-			connector.removeKeepAliveTimeout(client);
 			throw ex;
 		}
 	}
 
+	/**
+	 * Encrypts and writes the parts streamed so far, then the complete response.
+	 * 
+	 * @return true if the response at the head of the queue has been written
+	 *         completely
+	 */
+	private boolean writeResponse(SelectionKey key, ConnectionContext context) throws IOException {
+		SocketChannel client = (SocketChannel) key.channel();
+		PendingResponse pending = context.peekResponse();
+		ArrayDeque<ByteBuffer[]> chunks = pending.getChunks();
+		while (!chunks.isEmpty()) {
+			ByteBuffer[] chunk = chunks.peek();
+			long consumed = wrap(chunk, context.getEngine(), client, context);
+			if (consumed < 0) {
+				return false;
+			}
+			pending.getStream().onWritten(consumed);
+			if (!IOSocketHelper.isWritten(chunk)) {
+				return false;
+			}
+			chunks.poll();
+			if (context.getSslOutput() != null) { // the socket is full
+				return false;
+			}
+		}
+
+		Response response = pending.getResponse();
+		if (response == null) { // still streaming
+			return false;
+		}
+		ByteBuffer[] writeBuffers = response.getByteBuffers();
+		if (wrap(writeBuffers, response.getSSLEngine(), client, context) < 0 || !IOSocketHelper.isWritten(writeBuffers)
+				|| context.getSslOutput() != null) {
+			return false;
+		}
+		FileTransfer transfer = response.getFileTransfer();
+		if (transfer != null) { // encrypted, so copied through the engine, resumed on the next OP_WRITE
+			transfer.transferTo(new EngineChannel(response.getSSLEngine(), client, context));
+			if (!key.isValid() || !transfer.isDone() || context.getSslOutput() != null) {
+				return false;
+			}
+			transfer.close();
+		}
+		this.finishRequest(key);
+		return true;
+	}
+
+	/**
+	 * Encrypts and writes the buffers one record at a time, until the socket is
+	 * full: the encrypted bytes it doesn't take are kept by the connection.
+	 * 
+	 * @return the number of bytes of the buffers consumed, -1 if the engine is
+	 *         closed, and so the connection
+	 */
+	private long wrap(ByteBuffer[] writeBuffers, SSLEngine engine, SocketChannel client, ConnectionContext context)
+			throws IOException {
+		if (!flushSslOutput(client, context)) {
+			return 0;
+		}
+		long consumed = 0;
+		while (!IOSocketHelper.isWritten(writeBuffers)) {
+			// a record holds up to 16KB of the buffers
+			myNetData.clear();
+			SSLEngineResult result = engine.wrap(writeBuffers, myNetData);
+			switch (result.getStatus()) {
+			case OK:
+				consumed += result.bytesConsumed();
+				myNetData.flip();
+				context.onWrite(client.write(myNetData));
+				if (myNetData.hasRemaining()) { // the socket is full
+					keepSslOutput(context);
+					return consumed;
+				}
+				break;
+			case BUFFER_OVERFLOW:
+				myNetData = enlargePacketBuffer(engine, myNetData);
+				break;
+			case BUFFER_UNDERFLOW:
+				throw new SSLException(
+						"Buffer underflow occured after a wrap. I don't think we should ever get here.");
+			case CLOSED:
+				connector.closeChannel(client);
+				return -1;
+			default:
+				throw new IllegalStateException("Invalid SSL status: " + result.getStatus());
+			}
+		}
+		return consumed;
+	}
+
+	/**
+	 * Copies what is left of the record just encrypted in the connection, as
+	 * {@link #myNetData} is shared by all the connections of the loop
+	 */
+	private void keepSslOutput(ConnectionContext context) {
+		ByteBuffer output = ByteBuffer.allocate(myNetData.remaining());
+		output.put(myNetData);
+		output.flip();
+		context.setSslOutput(output);
+	}
+
+	/**
+	 * Writes the encrypted bytes kept by the connection, if any
+	 * 
+	 * @return true if none is left
+	 */
+	private boolean flushSslOutput(SocketChannel client, ConnectionContext context) throws IOException {
+		ByteBuffer output = context.getSslOutput();
+		if (output == null) {
+			return true;
+		}
+		context.onWrite(client.write(output));
+		if (output.hasRemaining()) {
+			return false;
+		}
+		context.setSslOutput(null);
+		return true;
+	}
+
 	public void finishRequest(SelectionKey key) throws IOException {
-		if (key.attachment() != null && key.attachment() instanceof Response) {
-			Response response = (Response) key.attachment();
-			key.attach(response.getSSLEngine());
+		ConnectionContext context = (ConnectionContext) key.attachment();
+		Response response = context.getResponse();
+		if (response != null) {
+			context.finishResponse();
 			connector.closeOrRegisterForRead(key, response.isKeepAlive());
 		}
 	}
@@ -544,4 +640,41 @@ public class SSLIOHandler implements IOHandler {
 		trustFactory.init(trustStore);
 		return trustFactory.getTrustManagers();
 	}
+	/**
+	 * Encrypts what is written to it, and writes it to the client
+	 */
+	private class EngineChannel implements WritableByteChannel {
+
+		private final SSLEngine engine;
+		private final SocketChannel client;
+		private final ConnectionContext context;
+
+		EngineChannel(SSLEngine engine, SocketChannel client, ConnectionContext context) {
+			this.engine = engine;
+			this.client = client;
+			this.context = context;
+		}
+
+		/**
+		 * @return the bytes encrypted, 0 once the socket is full
+		 */
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			long consumed = wrap(new ByteBuffer[] { src }, engine, client, context);
+			if (consumed < 0) {
+				throw new ClosedChannelException();
+			}
+			return (int) consumed;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return client.isOpen();
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
 }
@@ -23,32 +23,54 @@ SOFTWARE.
 */
 package io.github.ilmich.floppyt.io.callback;
 
-import java.util.AbstractCollection;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
-
+import io.github.ilmich.floppyt.util.ExceptionUtils;
+import io.github.ilmich.floppyt.util.Log;
 import io.github.ilmich.floppyt.web.AsyncCallback;
 
+/**
+ * The tasks handed to an event loop by the other threads. Callbacks can be
+ * added by any thread, but only the loop executes them.
+ */
 public class JMXCallbackManager {
 
-	private final AbstractCollection<AsyncCallback> callbacks = new ConcurrentLinkedQueue<AsyncCallback>();
+	private static final String TAG = "JMXCallbackManager";
+
+	/**
+	 * Maximum number of callbacks executed by a loop iteration, so that a burst
+	 * of tasks does not starve the IO
+	 */
+	private static final int MAX_BATCH = 1024;
+
+	private final MpscQueue<AsyncCallback> callbacks = new MpscQueue<AsyncCallback>();
 
 	public int getNumberOfCallbacks() {
 		return callbacks.size();
 	}
 
 	public void addCallback(AsyncCallback callback) {
-		callbacks.add(callback);
+		callbacks.offer(callback);
+	}
+
+	/**
+	 * @return true if some callbacks are waiting (loop thread only)
+	 */
+	public boolean hasCallbacks() {
+		return !callbacks.isEmpty();
 	}
 
+	/**
+	 * Executes a batch of callbacks (loop thread only).
+	 * 
+	 * @return true if some callbacks are still waiting
+	 */
 	public boolean execute() {
-		// makes a defensive copy to avoid (1) CME (new callbacks are added this
-		// iteration) and (2) IO starvation.
-		List<AsyncCallback> defensive = new ArrayList<AsyncCallback>(callbacks);
-		callbacks.clear();
-		for (AsyncCallback callback : defensive) {
-			callback.onCallback();
+		AsyncCallback callback;
+		for (int i = 0; i < MAX_BATCH && (callback = callbacks.poll()) != null; i++) {
+			try {
+				callback.onCallback();
+			} catch (RuntimeException ex) {
+				Log.error(TAG, "Error executing callback: " + ExceptionUtils.getStackTrace(ex));
+			}
 		}
 		return !callbacks.isEmpty();
 	}
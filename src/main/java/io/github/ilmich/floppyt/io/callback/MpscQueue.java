@@ -0,0 +1,95 @@
+/*
+MIT License
+
+Copyright (c) 2020 Michele Zuccalà
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package io.github.ilmich.floppyt.io.callback;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An unbounded lock-free multi-producer single-consumer queue: any thread can
+ * offer, but only the owner thread may poll. Producers only swap the tail, so
+ * they never contend with the consumer.
+ */
+class MpscQueue<T> {
+
+	private static final class Node<T> {
+
+		private volatile Node<T> next;
+		private T value;
+
+		private Node(T value) {
+			this.value = value;
+		}
+	}
+
+	private final AtomicReference<Node<T>> tail;
+	private Node<T> head; // consumer side, always a consumed node
+	private final LongAdder offered = new LongAdder();
+	private final AtomicLong polled = new AtomicLong(); // written by the consumer only
+
+	MpscQueue() {
+		Node<T> stub = new Node<T>(null);
+		head = stub;
+		tail = new AtomicReference<Node<T>>(stub);
+	}
+
+	void offer(T value) {
+		Node<T> node = new Node<T>(value);
+		offered.increment(); // before the node can be polled
+		tail.getAndSet(node).next = node;
+	}
+
+	/**
+	 * @return the oldest element, or null if the queue is empty or the producer
+	 *         of the oldest element is still linking it
+	 */
+	T poll() {
+		Node<T> next = head.next;
+		if (next == null) {
+			return null;
+		}
+		T value = next.value;
+		next.value = null;
+		head = next;
+		polled.lazySet(polled.get() + 1);
+		return value;
+	}
+
+	boolean isEmpty() {
+		return head.next == null && tail.get() == head;
+	}
+
+	/**
+	 * Safe to call from any thread, for monitoring: the counts are not read
+	 * atomically, so the result is approximate while the queue is in use.
+	 * 
+	 * @return the number of elements offered and not polled yet
+	 */
+	int size() {
+		long consumed = polled.get(); // first, so that it doesn't count more polls than offers
+		long size = offered.sum() - consumed;
+		return (int) Math.max(0, Math.min(size, Integer.MAX_VALUE));
+	}
+}
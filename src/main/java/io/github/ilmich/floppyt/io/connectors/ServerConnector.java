@@ -24,82 +24,158 @@ SOFTWARE.
 package io.github.ilmich.floppyt.io.connectors;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
-import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import io.github.ilmich.floppyt.io.BufferPool;
+import io.github.ilmich.floppyt.io.ConnectionContext;
+import io.github.ilmich.floppyt.io.ConnectionContext.PendingResponse;
 import io.github.ilmich.floppyt.io.IOHandler;
 import io.github.ilmich.floppyt.io.callback.JMXCallbackManager;
 import io.github.ilmich.floppyt.io.timeout.JMXTimeoutManager;
 import io.github.ilmich.floppyt.io.timeout.Timeout;
+import io.github.ilmich.floppyt.metrics.Counter;
+import io.github.ilmich.floppyt.metrics.Metrics;
 import io.github.ilmich.floppyt.util.Closeables;
 import io.github.ilmich.floppyt.util.Log;
+import io.github.ilmich.floppyt.web.AsyncCallback;
 import io.github.ilmich.floppyt.web.http.HttpServerDescriptor;
+import io.github.ilmich.floppyt.web.http.Response;
 
+/**
+ * An event loop: a selector thread serving the channels registered on it. Each
+ * loop owns its timeout and callback managers, so it never shares mutable state
+ * with the other loops of its {@link ServerConnectorGroup}.
+ */
 public class ServerConnector extends Thread {
 	
 	private static final String TAG = "ServerConnector";
 
+	private static final Counter DEFERRED = Metrics.counter("requests_deferred_total").labels();
+
+	/**
+	 * How often (ms) a loop retries the requests refused by a saturated executor
+	 */
+	private static final long DEFERRED_RETRY_INTERVAL = 5;
+
+	/**
+	 * How often (ms) the buffer leaks are reported, when leak detection is on
+	 */
+	private static final long LEAK_REPORT_INTERVAL = 10000;
+
+	/**
+	 * All the running loops, used to aggregate statistics
+	 */
+	private static final List<ServerConnector> running = new CopyOnWriteArrayList<ServerConnector>();
+
 	// private int port;
 	private ServerSocketChannel serverChannel;
-	private Selector selector;
-	public static final JMXCallbackManager cm = new JMXCallbackManager();
-	public static final JMXTimeoutManager tm = new JMXTimeoutManager();
+	private final Selector selector;
+	private final JMXCallbackManager cm = new JMXCallbackManager();
+	private final JMXTimeoutManager tm = new JMXTimeoutManager();
+	private final BufferPool bufferPool = new BufferPool();
+	private final AtomicInteger connections = new AtomicInteger();
+	private final AtomicBoolean wakenUp = new AtomicBoolean();
+	private ServerConnectorGroup group = null;
 	private IOHandler ioHandler;
-	private boolean isRunning = false;
+	private volatile boolean isRunning = false;
+
+	/**
+	 * Requests refused by a saturated executor, waiting (with the reads of their
+	 * connection suspended) to be submitted again by this loop
+	 */
+	private final ArrayDeque<DeferredTask> deferred = new ArrayDeque<DeferredTask>();
 	
-	public static ThreadPoolExecutor executor = new ThreadPoolExecutor(HttpServerDescriptor.MIN_THREADS_PROCESSOR,
-			HttpServerDescriptor.MAX_THREADS_PROCESSOR, HttpServerDescriptor.KEEP_ALIVE_TIMEOUT, TimeUnit.SECONDS,
-			new SynchronousQueue<Runnable>());
+	public static ThreadPoolExecutor executor = newWorkerPool();
+
+	/**
+	 * Creates the worker pool: it grows up to MAX_THREADS_PROCESSOR threads, then
+	 * queues up to REQUEST_QUEUE_DEPTH requests and finally rejects the others.
+	 */
+	private static ThreadPoolExecutor newWorkerPool() {
+		if (HttpServerDescriptor.REQUEST_QUEUE_DEPTH <= 0) {
+			return new ThreadPoolExecutor(HttpServerDescriptor.MIN_THREADS_PROCESSOR,
+					HttpServerDescriptor.MAX_THREADS_PROCESSOR, HttpServerDescriptor.THREAD_PROCESSOR_IDLE_TIME,
+					TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+		}
+		WorkerQueue queue = new WorkerQueue(HttpServerDescriptor.REQUEST_QUEUE_DEPTH);
+		WorkerPool pool = new WorkerPool(queue);
+		queue.pool = pool;
+		return pool;
+	}
 
 	public ServerConnector(IOHandler ioHandler) {
 		super();
+		try {
+			selector = Selector.open();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not open selector", e);
+		}
 		setIoHandler(ioHandler);
 	}
 
 	/**
-	 * Setup connector
+	 * Setup connector. A loop which is part of a group and has no listening
+	 * socket only serves the channels dispatched to it by the acceptor.
 	 * 
 	 */
-	protected void startUp() throws Exception {
-		if (this.serverChannel == null) {
+	protected void startUp() throws IOException {
+		if (this.serverChannel == null && this.group == null) {
 			this.bind(8080);
 		}
-		selector = Selector.open();
-		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		if (this.serverChannel != null) {
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		}
+		if (HttpServerDescriptor.BUFFER_LEAK_DETECTION) {
+			scheduleLeakReport();
+		}
+	}
+
+	private void scheduleLeakReport() {
+		tm.addTimeout(new Timeout(System.currentTimeMillis() + LEAK_REPORT_INTERVAL, new AsyncCallback() {
+			@Override
+			public void onCallback() {
+				bufferPool.reportLeaks(LEAK_REPORT_INTERVAL);
+				scheduleLeakReport();
+			}
+		}));
 	}
 
 	@Override
 	public void run() {
-		if (this.serverChannel == null) {
-			this.bind(8080);
-		}
-
 		long selectorTimeout = 250; // 250 m
+		running.add(this);
 		try {
 
-			selector = Selector.open();
-			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+			startUp();
 
 			while (isRunning) {
 
-				if (selector.select(selectorTimeout) == 0) {
-					long ms = tm.execute(); // execute all timeouts
-					// eventually reduce selector timeout in order to execute next
-					// timeout
-					selectorTimeout = Math.min(ms, /* selectorTimeout */250);
-					if (cm.execute()) { // execute all callback registered
-						selectorTimeout = 1;
-					}
-					continue;
+				wakenUp.set(false); // from now on a new task wakes the selector up
+				if (cm.hasCallbacks()) { // don't block, tasks are waiting
+					selector.selectNow();
+				} else {
+					selector.select(selectorTimeout);
 				}
 
 				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
@@ -129,15 +205,20 @@ public class ServerConnector extends Thread {
 						closeChannel((SocketChannel) key.channel());
 					}
 				}
-				long ms = tm.execute();
+				long ms = tm.execute(); // execute all timeouts
+				// eventually reduce selector timeout in order to execute next
+				// timeout
 				selectorTimeout = Math.min(ms, /* selectorTimeout */250);
-				if (cm.execute()) {
-					selectorTimeout = 1;
+				cm.execute(); // execute a batch of the tasks of the other threads
+				if (resumeDeferred()) { // still saturated, poll again soon
+					selectorTimeout = Math.min(selectorTimeout, DEFERRED_RETRY_INTERVAL);
 				}
 			}
 		} catch (IOException e) {
 			this.isRunning = false;
 			e.printStackTrace();
+		} finally {
+			running.remove(this);
 		}
 	}
 
@@ -146,6 +227,18 @@ public class ServerConnector extends Thread {
 	}
 
 	public void bind(InetSocketAddress endpoint) {
+		this.bind(endpoint, false);
+	}
+
+	/**
+	 * Open the listening socket of this loop.
+	 * 
+	 * @param endpoint  the address to listen to
+	 * @param reusePort enable SO_REUSEPORT, so that several loops can listen to
+	 *                  the same address and the kernel spreads the incoming
+	 *                  connections among them
+	 */
+	public void bind(InetSocketAddress endpoint, boolean reusePort) {
 		try {
 			serverChannel = ServerSocketChannel.open();
 			boolean reuse = serverChannel.socket().getReuseAddress();
@@ -153,6 +246,10 @@ public class ServerConnector extends Thread {
 				Log.trace(TAG, "Enabling SO_REUSEADDR (was disabled)");
 				serverChannel.socket().setReuseAddress(true);
 			}
+			if (reusePort) {
+				Log.trace(TAG, "Enabling SO_REUSEPORT");
+				serverChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+			}
 			serverChannel.configureBlocking(false);
 		} catch (IOException e) {
 			Log.error(TAG, "Error creating ServerSocketChannel: " + e.getMessage());
@@ -166,42 +263,328 @@ public class ServerConnector extends Thread {
 		Log.info(TAG, "Listen to " + endpoint.toString());
 	}
 
+	/**
+	 * Hands a freshly accepted channel to the loop of the group that will serve
+	 * it, or to this loop when it's not part of a group or when every loop of the
+	 * group accepts on its own listening socket.
+	 */
+	public void dispatch(SocketChannel channel) throws IOException {
+		dispatch(channel, new ConnectionContext(channel));
+	}
+
+	public void dispatch(SocketChannel channel, ConnectionContext context) throws IOException {
+		ServerConnector loop = group != null && !group.isSharded() ? group.next() : this;
+		loop.connections.incrementAndGet();
+		loop.registerChannel(channel, SelectionKey.OP_READ, context);
+	}
+
 	public void registerChannel(SocketChannel channel, int interestOps) throws IOException {
-		channel.register(selector, interestOps);
-		selector.wakeup();
+		registerChannel(channel, interestOps, null);
 	}
 
-	public void registerChannel(SocketChannel channel, int interestOps, Object attachment) throws IOException {
-		channel.register(selector, interestOps, attachment);
-		selector.wakeup();
+	/**
+	 * Registers the channel, or changes the interest of its key (and its
+	 * attachment, when not null). When called by another thread the change is
+	 * queued as a task for the loop, so that only the loop touches its selector.
+	 */
+	public void registerChannel(final SocketChannel channel, final int interestOps, final Object attachment)
+			throws IOException {
+		if (!inLoop()) {
+			execute(new AsyncCallback() {
+				@Override
+				public void onCallback() {
+					try {
+						registerChannel(channel, interestOps, attachment);
+					} catch (IOException ex) {
+						Log.trace(TAG, "IOException when registering channel: " + ex.getMessage());
+						closeChannel(channel);
+					}
+				}
+			});
+			return;
+		}
+		SelectionKey key = channel.keyFor(selector);
+		if (key != null && key.isValid()) {
+			key.interestOps(interestOps);
+			if (attachment != null) {
+				key.attach(attachment);
+			}
+		} else {
+			channel.register(selector, interestOps, attachment);
+		}
+	}
+
+	/**
+	 * Hands a completed response to the loop, which writes it at once instead of
+	 * waiting for the next select, unless the responses of earlier pipelined
+	 * requests are still missing: the socket is then registered for OP_WRITE
+	 * only if it could not take the whole response.
+	 * 
+	 * @param pending the place of the response in the queue of the connection
+	 */
+	public void writeResponse(final SocketChannel channel, final PendingResponse pending, final Response response) {
+		if (!inLoop()) {
+			execute(new AsyncCallback() {
+				@Override
+				public void onCallback() {
+					writeResponse(channel, pending, response);
+				}
+			});
+			return;
+		}
+		SelectionKey key = channel.keyFor(selector);
+		if (key == null || !key.isValid()) { // closed in the meantime
+			closeChannel(channel);
+			return;
+		}
+		pending.complete(response);
+		write(key);
+	}
+
+	/**
+	 * Hands a part of a streamed response to the loop, which writes it like a
+	 * complete response: the buffers are owned by the loop from now on.
+	 * 
+	 * @param pending the place of the response in the queue of the connection
+	 */
+	public void writeChunk(final SocketChannel channel, final PendingResponse pending, final ByteBuffer[] chunk) {
+		if (!inLoop()) {
+			execute(new AsyncCallback() {
+				@Override
+				public void onCallback() {
+					writeChunk(channel, pending, chunk);
+				}
+			});
+			return;
+		}
+		SelectionKey key = channel.keyFor(selector);
+		if (key == null || !key.isValid()) { // closed in the meantime
+			pending.release();
+			closeChannel(channel);
+			return;
+		}
+		pending.addChunk(chunk);
+		write(key);
+	}
+
+	/**
+	 * Writes what the head of the response queue has to write, unless it's
+	 * waiting: the handler registers the socket for OP_WRITE if bytes remain
+	 */
+	private void write(SelectionKey key) {
+		ConnectionContext context = (ConnectionContext) key.attachment();
+		if (!context.hasOutput()) { // waiting for an earlier response
+			return;
+		}
+		try {
+			ioHandler.handleWrite(key);
+		} catch (CancelledKeyException ex) {
+			Log.trace(TAG, "CancelledKeyException when writing response: " + ex.getMessage());
+		} catch (IOException ex) {
+			closeChannel(context.getChannel());
+		}
+	}
+
+	/**
+	 * @return true if the caller is running on this loop thread
+	 */
+	public boolean inLoop() {
+		return Thread.currentThread() == this;
 	}
 
-	public void closeChannel(SocketChannel channel) {
+	/**
+	 * Runs the callback on this loop thread. Tasks queued while the loop is
+	 * already awake, or already woken up, don't wake it up again.
+	 */
+	public void execute(AsyncCallback callback) {
+		cm.addCallback(callback);
+		if (!inLoop() && wakenUp.compareAndSet(false, true)) {
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Parks a request refused by a saturated executor: the connection stops
+	 * being read, so that TCP flow control pushes back on the client, and the
+	 * loop submits the request again as soon as the executor has room. Must be
+	 * called from this loop.
+	 */
+	public void defer(SelectionKey key, Executor executor, Runnable task) {
+		key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+		deferred.add(new DeferredTask(key, executor, task));
+		DEFERRED.increment();
+	}
+
+	/**
+	 * Submits again the deferred requests, in arrival order, until the executor
+	 * refuses one of them.
+	 * 
+	 * @return true if some requests are still waiting
+	 */
+	private boolean resumeDeferred() {
+		DeferredTask task;
+		while ((task = deferred.peek()) != null) {
+			if (task.key.isValid()) { // the client may have gone in the meantime
+				try {
+					task.executor.execute(task.task);
+				} catch (RejectedExecutionException ex) {
+					return true;
+				}
+			}
+			deferred.poll();
+		}
+		return false;
+	}
+
+	public void closeChannel(final SocketChannel channel) {
+		if (!inLoop()) { // timeouts are owned by the loop
+			execute(new AsyncCallback() {
+				@Override
+				public void onCallback() {
+					closeChannel(channel);
+				}
+			});
+			return;
+		}
+		if (channel.isOpen()) {
+			connections.decrementAndGet();
+		}
+		ConnectionContext context = getContext(channel);
+		if (context != null) {
+			if (context.getKeepAlive() != null) {
+				tm.removeKeepAliveTimeout(context.getKeepAlive());
+			}
+			context.release();
+		}
 		ioHandler.handleDisconnect(channel);
 		Closeables.closeQuietly(channel);
 	}
 
-	public boolean hasKeepAliveTimeout(SelectableChannel channel) {
-		return tm.hasKeepAliveTimeout(channel);
+	/**
+	 * @return the number of connections currently served by this loop
+	 */
+	public int getNumberOfConnections() {
+		return connections.get();
+	}
+
+	public JMXTimeoutManager getTimeoutManager() {
+		return tm;
+	}
+
+	public JMXCallbackManager getCallbackManager() {
+		return cm;
+	}
+
+	/**
+	 * @return the pool of the buffers used by this loop (loop thread only)
+	 */
+	public BufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	public ServerConnectorGroup getGroup() {
+		return group;
+	}
+
+	void setGroup(ServerConnectorGroup group) {
+		this.group = group;
+	}
+
+	/**
+	 * @return the number of keep-alive connections of all running loops
+	 */
+	public static int countKeepAliveConnections() {
+		int count = 0;
+		for (ServerConnector loop : running) {
+			count += loop.tm.getNumberOfKeepAliveTimeouts();
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of connections of all running loops
+	 */
+	public static int countConnections() {
+		int count = 0;
+		for (ServerConnector loop : running) {
+			count += loop.getNumberOfConnections();
+		}
+		return count;
+	}
+
+	/**
+	 * @return the context of a channel served by this loop, or null if it's not
+	 *         registered
+	 */
+	private ConnectionContext getContext(SocketChannel channel) {
+		SelectionKey key = channel.keyFor(selector);
+		return key != null && key.attachment() instanceof ConnectionContext ? (ConnectionContext) key.attachment()
+				: null;
+	}
+
+	public boolean hasKeepAliveTimeout(ConnectionContext context) {
+		return context.getKeepAlive() != null;
+	}
+
+	public void removeKeepAliveTimeout(final ConnectionContext context) {
+		if (!inLoop()) {
+			execute(new AsyncCallback() {
+				@Override
+				public void onCallback() {
+					removeKeepAliveTimeout(context);
+				}
+			});
+			return;
+		}
+		if (context.getKeepAlive() != null) {
+			tm.removeKeepAliveTimeout(context.getKeepAlive());
+			context.setKeepAlive(null);
+		}
+	}
+
+	public void prolongKeepAliveTimeout(ConnectionContext context) {
+		long timeout = System.currentTimeMillis() + HttpServerDescriptor.KEEP_ALIVE_TIMEOUT;
+		if (context.getKeepAlive() == null || !tm.prolongKeepAliveTimeout(context.getKeepAlive(), timeout)) {
+			addKeepAliveTimeout(context);
+		}
+	}
+
+	/**
+	 * Stops the keep-alive timeout of a connection while its responses are
+	 * written, however long they take: it's armed again by
+	 * {@link #closeOrRegisterForRead(SelectionKey, boolean)}
+	 */
+	public void suspendKeepAliveTimeout(ConnectionContext context) {
+		if (context.getKeepAlive() != null) {
+			tm.suspendKeepAliveTimeout(context.getKeepAlive());
+		}
 	}
 
-	public void removeKeepAliveTimeout(SelectableChannel channel) {
-		tm.removeKeepAliveTimeout(channel);
+	private void resumeKeepAliveTimeout(ConnectionContext context) {
+		long timeout = System.currentTimeMillis() + HttpServerDescriptor.KEEP_ALIVE_TIMEOUT;
+		if (context.getKeepAlive() == null || !tm.resumeKeepAliveTimeout(context.getKeepAlive(), timeout)) {
+			addKeepAliveTimeout(context);
+		}
 	}
 
-	public void prolongKeepAliveTimeout(SelectableChannel channel) {
-		tm.addKeepAliveTimeout(channel, Timeout.newKeepAliveTimeout(channel, HttpServerDescriptor.KEEP_ALIVE_TIMEOUT, this));
+	private void addKeepAliveTimeout(ConnectionContext context) {
+		Timeout keepAlive = Timeout.newKeepAliveTimeout(context.getChannel(), HttpServerDescriptor.KEEP_ALIVE_TIMEOUT,
+				this);
+		tm.addKeepAliveTimeout(keepAlive);
+		context.setKeepAlive(keepAlive);
 	}
 
+	/**
+	 * Called once a response is written: closes the connection, or waits for
+	 * the next requests when all the pipelined responses are written (resuming
+	 * the reads and the keep-alive timeout suspended in the meantime).
+	 */
 	public void closeOrRegisterForRead(SelectionKey key, boolean keepAlive) throws IOException {
 		if (key.isValid() && keepAlive) {
-			try {
-				registerChannel((SocketChannel) key.channel(), SelectionKey.OP_READ);
-				key.selector().wakeup();
-				prolongKeepAliveTimeout(key.channel());
-			} catch (IOException ex) {
-				Log.error(TAG, "IOException while registrating key for read: " + ex.getMessage());
-				throw ex;
+			ConnectionContext context = (ConnectionContext) key.attachment();
+			if (context.getPendingResponses() == 0) {
+				key.interestOps(SelectionKey.OP_READ);
+				resumeKeepAliveTimeout(context);
 			}
 		} else {
 			closeChannel((SocketChannel) key.channel());
@@ -219,11 +602,17 @@ public class ServerConnector extends Thread {
 
 	public void shutDown() {
 		this.isRunning = false;
+		selector.wakeup();
+	}
+
+	@Override
+	public synchronized void start() {
+		this.isRunning = true;
+		super.start();
 	}
 
 	public void startAndWait() {
 		this.start();
-		this.isRunning = true;
 		try {
 			this.join();
 		} catch (InterruptedException e) {
@@ -231,4 +620,94 @@ public class ServerConnector extends Thread {
 		}
 	}
 
-}
\ No newline at end of file
+	private static class DeferredTask {
+
+		private final SelectionKey key;
+		private final Executor executor;
+		private final Runnable task;
+
+		private DeferredTask(SelectionKey key, Executor executor, Runnable task) {
+			this.key = key;
+			this.executor = executor;
+			this.task = task;
+		}
+	}
+
+	/**
+	 * The worker pool of a {@link WorkerQueue}: it counts its threads and the
+	 * tasks submitted and not done yet with atomics, as getPoolSize() and
+	 * getActiveCount() take the lock of the pool, which all the loops would
+	 * contend for on every request.
+	 */
+	private static class WorkerPool extends ThreadPoolExecutor {
+
+		private final AtomicInteger threads = new AtomicInteger();
+		private final AtomicInteger submitted = new AtomicInteger();
+
+		private WorkerPool(WorkerQueue queue) {
+			super(HttpServerDescriptor.MIN_THREADS_PROCESSOR, HttpServerDescriptor.MAX_THREADS_PROCESSOR,
+					HttpServerDescriptor.THREAD_PROCESSOR_IDLE_TIME, TimeUnit.SECONDS, queue);
+			final ThreadFactory factory = getThreadFactory();
+			setThreadFactory(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable worker) {
+					return factory.newThread(new Runnable() {
+						@Override
+						public void run() {
+							threads.incrementAndGet(); // counted once running
+							try {
+								worker.run();
+							} finally {
+								threads.decrementAndGet();
+							}
+						}
+					});
+				}
+			});
+		}
+
+		@Override
+		public void execute(Runnable task) {
+			submitted.incrementAndGet();
+			try {
+				super.execute(task);
+			} catch (RejectedExecutionException ex) {
+				submitted.decrementAndGet();
+				throw ex;
+			}
+		}
+
+		@Override
+		protected void afterExecute(Runnable task, Throwable t) {
+			submitted.decrementAndGet();
+		}
+	}
+
+	/**
+	 * A bounded queue which lets the pool grow up to its maximum size before
+	 * queueing, as a plain bounded queue would keep the pool at its core size
+	 * until the queue is full.
+	 */
+	@SuppressWarnings("serial")
+	private static class WorkerQueue extends LinkedBlockingQueue<Runnable> {
+
+		private WorkerPool pool;
+
+		private WorkerQueue(int capacity) {
+			super(capacity);
+		}
+
+		@Override
+		public boolean offer(Runnable task) {
+			if (pool != null) {
+				int threads = pool.threads.get();
+				// this task included: more tasks than threads leaves none idle
+				if (pool.submitted.get() > threads && threads < pool.getMaximumPoolSize()) {
+					return false; // start a new one
+				}
+			}
+			return super.offer(task);
+		}
+	}
+
+}
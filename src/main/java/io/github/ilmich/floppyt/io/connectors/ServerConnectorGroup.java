@@ -0,0 +1,134 @@
+/*
+MIT License
+
+Copyright (c) 2020 Michele Zuccalà
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package io.github.ilmich.floppyt.io.connectors;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.ilmich.floppyt.util.Log;
+
+/**
+ * A group of event loops serving the same listening address. The first loop of
+ * the group accepts the incoming connections and hands each of them to a loop
+ * of the group, picked round-robin or by least number of connections.
+ * <p>
+ * When bound with SO_REUSEPORT every loop listens on its own socket instead,
+ * accepts its own connections and keeps serving them: the kernel spreads the
+ * incoming connections among the loops.
+ */
+public class ServerConnectorGroup {
+
+	private static final String TAG = "ServerConnectorGroup";
+
+	private final List<ServerConnector> loops = new ArrayList<ServerConnector>();
+	private final AtomicInteger nextLoop = new AtomicInteger();
+	private final boolean leastLoaded;
+	private boolean sharded = false;
+
+	public ServerConnectorGroup() {
+		this(false);
+	}
+
+	public ServerConnectorGroup(boolean leastLoaded) {
+		super();
+		this.leastLoaded = leastLoaded;
+	}
+
+	public ServerConnectorGroup add(ServerConnector loop) {
+		loop.setGroup(this);
+		loop.setName("ServerConnector-" + loops.size());
+		loops.add(loop);
+		return this;
+	}
+
+	/**
+	 * Bind the listening socket on the acceptor loop
+	 */
+	public void bind(InetSocketAddress endpoint) {
+		bind(endpoint, false);
+	}
+
+	/**
+	 * Bind the listening socket(s) of the group.
+	 * 
+	 * @param endpoint  the address to listen to
+	 * @param reusePort open one listening socket per loop with SO_REUSEPORT.
+	 *                  Ignored when the platform does not support it.
+	 */
+	public void bind(InetSocketAddress endpoint, boolean reusePort) {
+		if (reusePort && loops.size() > 1) {
+			if (isReusePortSupported()) {
+				for (ServerConnector loop : loops) {
+					loop.bind(endpoint, true);
+				}
+				sharded = true;
+				return;
+			}
+			Log.warn(TAG, "SO_REUSEPORT is not supported, falling back to a single acceptor");
+		}
+		loops.get(0).bind(endpoint);
+	}
+
+	/**
+	 * @return true if every loop of the group accepts on its own socket
+	 */
+	public boolean isSharded() {
+		return sharded;
+	}
+
+	/**
+	 * @return the loop that will serve the next accepted connection
+	 */
+	public ServerConnector next() {
+		if (leastLoaded) {
+			ServerConnector candidate = loops.get(0);
+			for (ServerConnector loop : loops) {
+				if (loop.getNumberOfConnections() < candidate.getNumberOfConnections()) {
+					candidate = loop;
+				}
+			}
+			return candidate;
+		}
+		return loops.get(Math.floorMod(nextLoop.getAndIncrement(), loops.size()));
+	}
+
+	public List<ServerConnector> getConnectors() {
+		return Collections.unmodifiableList(loops);
+	}
+
+	public static boolean isReusePortSupported() {
+		try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+			return channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+}
@@ -23,150 +23,223 @@ SOFTWARE.
 */
 package io.github.ilmich.floppyt.io.timeout;
 
-import java.nio.channels.SelectableChannel;
-import java.util.Comparator;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.SortedSet;
-import java.util.TreeSet;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.List;
 
 import io.github.ilmich.floppyt.util.Log;
 import io.github.ilmich.floppyt.web.AsyncCallback;
 
+/**
+ * Timeouts of an event loop, kept in a hashed timing wheel: scheduling,
+ * cancelling and rescheduling are O(1), and each loop iteration only visits the
+ * buckets of the ticks elapsed since the previous one. Keep-alive timeouts are
+ * prolonged in place by moving their deadline forward: they are rescheduled
+ * only when their bucket expires, and suspended while their connection has
+ * responses to write.
+ * 
+ * Not thread safe, must be used only by the loop thread.
+ */
 public class JMXTimeoutManager {
 
 	private static final String TAG = "JMXTimeoutManager";
-	private final TreeSet<Timeout> timeouts = new TreeSet<Timeout>(new TimeoutComparator());
-	private final TreeSet<DecoratedTimeout> keepAliveTimeouts = new TreeSet<JMXTimeoutManager.DecoratedTimeout>();
-	private final Map<SelectableChannel, DecoratedTimeout> index = new ConcurrentHashMap<SelectableChannel, JMXTimeoutManager.DecoratedTimeout>();
-
-	public void addKeepAliveTimeout(SelectableChannel channel, Timeout timeout) {
-		DecoratedTimeout decorated = index.get(channel);
-		if (decorated == null) {
-			decorated = new DecoratedTimeout(channel, timeout);
-			index.put(channel, decorated);
+
+	/**
+	 * Duration (ms) of a tick of the wheel
+	 */
+	private static final long TICK = 10;
+
+	/**
+	 * Number of buckets of the wheel (a power of two)
+	 */
+	private static final int WHEEL_SIZE = 512;
+	private static final int MASK = WHEEL_SIZE - 1;
+
+	private final Timeout[] wheel = new Timeout[WHEEL_SIZE];
+	private final List<Timeout> expired = new ArrayList<Timeout>();
+	private final long origin = System.currentTimeMillis();
+	private long tick = 0; // next tick to expire
+	private int size = 0;
+	private int keepAlives = 0;
+
+	public void addKeepAliveTimeout(Timeout timeout) {
+		timeout.keepAlive = true;
+		keepAlives++;
+		schedule(timeout);
+	}
+
+	/**
+	 * Moves a keep-alive timeout to a later deadline, without rescheduling it.
+	 * 
+	 * @return false if the timeout is no longer waiting
+	 */
+	public boolean prolongKeepAliveTimeout(Timeout keepAlive, long timeout) {
+		if (keepAlive.suspended) { // gets its deadline when resumed
+			return true;
 		}
-		keepAliveTimeouts.remove(decorated);
-		decorated.setTimeout(timeout);
-		keepAliveTimeouts.add(decorated);
+		if (!keepAlive.isScheduled()) {
+			return false;
+		}
+		keepAlive.setTimeout(timeout);
+		return true;
 	}
 
-	public void removeKeepAliveTimeout(SelectableChannel channel) {
-		DecoratedTimeout sc = index.get(channel);
-		if (sc == null)
+	/**
+	 * Takes a keep-alive timeout out of the wheel, without cancelling it, while
+	 * the connection is busy serving its requests.
+	 */
+	public void suspendKeepAliveTimeout(Timeout keepAlive) {
+		if (keepAlive.isCancelled() || keepAlive.suspended) {
 			return;
-
-		keepAliveTimeouts.remove(index.get(channel));
-		index.remove(channel);
+		}
+		keepAlive.suspended = true; // skipped if it's just expiring
+		keepAlives--;
+		unschedule(keepAlive);
 	}
 
-	public void addTimeout(Timeout timeout) {
-		timeouts.add(timeout);
+	/**
+	 * Schedules a suspended keep-alive timeout again, or prolongs a waiting one.
+	 * 
+	 * @return false if the timeout is no longer waiting
+	 */
+	public boolean resumeKeepAliveTimeout(Timeout keepAlive, long timeout) {
+		if (!keepAlive.suspended) {
+			return prolongKeepAliveTimeout(keepAlive, timeout);
+		}
+		keepAlive.suspended = false;
+		keepAlive.setTimeout(timeout);
+		keepAlives++;
+		schedule(keepAlive);
+		return true;
 	}
 
-	public boolean hasKeepAliveTimeout(SelectableChannel channel) {
-		return index.containsKey(channel);
-	}
+	public void removeKeepAliveTimeout(Timeout keepAlive) {
+		if (keepAlive.isCancelled())
+			return;
 
-	public long execute() {
-		return Math.min(executeKeepAliveTimeouts(), executeTimeouts());
+		if (!keepAlive.suspended) {
+			keepAlives--;
+		}
+		cancel(keepAlive);
 	}
 
-	private long executeKeepAliveTimeouts() {
-		// makes a defensive copy to avoid (1) CME (new timeouts are added this
-		// iteration) and (2) IO starvation.
-		long now = System.currentTimeMillis();
-		SortedSet<DecoratedTimeout> defensive = new TreeSet<JMXTimeoutManager.DecoratedTimeout>(keepAliveTimeouts)
-				.headSet(new DecoratedTimeout(null, new Timeout(now, AsyncCallback.nopCb)));
-
-		keepAliveTimeouts.removeAll(defensive);
-		for (DecoratedTimeout decoratedTimeout : defensive) {
-			decoratedTimeout.timeout.getCallback().onCallback();
-			index.remove(decoratedTimeout.channel);
-			Log.trace(TAG, "Keepalive Timeout triggered: ");
-		}
+	public void addTimeout(Timeout timeout) {
+		schedule(timeout);
+	}
 
-		return keepAliveTimeouts.isEmpty() ? Long.MAX_VALUE
-				: Math.max(1, keepAliveTimeouts.iterator().next().timeout.getTimeout() - now);
+	/**
+	 * Cancels the timeout and removes it from the wheel
+	 */
+	public void cancel(Timeout timeout) {
+		timeout.cancel();
+		unschedule(timeout);
 	}
 
-	private long executeTimeouts() {
-		// makes a defensive copy to avoid (1) CME (new timeouts are added this
-		// iteration) and (2) IO starvation.
-		TreeSet<Timeout> defensive = new TreeSet<Timeout>(timeouts);
-		Iterator<Timeout> iter = defensive.iterator();
+	/**
+	 * Triggers the expired timeouts.
+	 * 
+	 * @return ms until the next timeout may expire
+	 */
+	public long execute() {
 		final long now = System.currentTimeMillis();
-		while (iter.hasNext()) {
-			Timeout candidate = iter.next();
-			if (candidate.getTimeout() > now) {
+		final long target = (now - origin) / TICK;
+		while (tick <= target) {
+			if (size == 0) { // nothing to expire, skip the empty ticks
+				tick = target + 1;
 				break;
 			}
-			candidate.getCallback().onCallback();
-			iter.remove();
-			timeouts.remove(candidate);
-			Log.trace(TAG, "Timeout triggered: ");
+			expire(tick++, now);
 		}
-		return timeouts.isEmpty() ? Long.MAX_VALUE : Math.max(1, timeouts.iterator().next().getTimeout() - now);
-	}
 
+		// callbacks run after the wheel walk, as they may add or cancel timeouts
+		for (int i = 0; i < expired.size(); i++) {
+			Timeout timeout = expired.get(i);
+			if (timeout.isCancelled() || timeout.suspended) { // by a previous callback
+				continue;
+			}
+			AsyncCallback callback = timeout.getCallback();
+			if (timeout.keepAlive) {
+				timeout.cancel(); // done, a later removal is a no-op
+				keepAlives--;
+				Log.trace(TAG, "Keepalive Timeout triggered: ");
+			} else {
+				Log.trace(TAG, "Timeout triggered: ");
+			}
+			callback.onCallback();
+		}
+		expired.clear();
 
-	public int getNumberOfKeepAliveTimeouts() {
-		return index.size();
+		return nextExpiration(now);
 	}
 
-	public int getNumberOfTimeouts() {
-		return keepAliveTimeouts.size() + timeouts.size();
+	private void expire(long current, long now) {
+		Timeout timeout = wheel[(int) (current & MASK)];
+		while (timeout != null) {
+			Timeout next = timeout.next;
+			if (timeout.rounds > 0) {
+				timeout.rounds--;
+			} else {
+				unschedule(timeout);
+				if (timeout.getTimeout() > now) { // prolonged keep-alive
+					schedule(timeout);
+				} else {
+					expired.add(timeout);
+				}
+			}
+			timeout = next;
+		}
 	}
 
-	private class DecoratedTimeout implements Comparable<DecoratedTimeout> {
-
-		public final SelectableChannel channel;
-		public Timeout timeout;
-
-		public DecoratedTimeout(SelectableChannel channel, Timeout timeout) {
-			this.channel = channel;
-			this.timeout = timeout;
+	private long nextExpiration(long now) {
+		if (size == 0) {
+			return Long.MAX_VALUE;
 		}
-
-		@Override
-		public int compareTo(DecoratedTimeout that) {
-			long diff = timeout.getTimeout() - that.timeout.getTimeout();
-			if (diff < 0) {
-				return -1;
-			} else if (diff > 0) {
-				return 1;
-			}
-			if (channel != null && that.channel != null) {
-				return channel.hashCode() - that.channel.hashCode();
-			} else if (channel == null && that.channel != null) {
-				return -1;
-			} else if (channel != null && that.channel == null) {
-				return -1;
-			} else {
-				return 0;
+		for (int i = 0; i < WHEEL_SIZE; i++) {
+			if (wheel[(int) ((tick + i) & MASK)] != null) {
+				return Math.max(1, origin + (tick + i) * TICK - now);
 			}
 		}
+		return Long.MAX_VALUE;
+	}
 
-		public void setTimeout(Timeout timeout) {
-			this.timeout = timeout;
+	private void schedule(Timeout timeout) {
+		// round up, so that a timeout never expires before its deadline
+		long deadline = Math.max(tick, (timeout.getTimeout() - origin + TICK - 1) / TICK);
+		int bucket = (int) (deadline & MASK);
+		timeout.rounds = (deadline - tick) / WHEEL_SIZE;
+		timeout.bucket = bucket;
+		timeout.prev = null;
+		timeout.next = wheel[bucket];
+		if (timeout.next != null) {
+			timeout.next.prev = timeout;
 		}
+		wheel[bucket] = timeout;
+		size++;
+	}
 
+	private void unschedule(Timeout timeout) {
+		if (!timeout.isScheduled()) {
+			return;
+		}
+		if (timeout.prev != null) {
+			timeout.prev.next = timeout.next;
+		} else {
+			wheel[timeout.bucket] = timeout.next;
+		}
+		if (timeout.next != null) {
+			timeout.next.prev = timeout.prev;
+		}
+		timeout.prev = null;
+		timeout.next = null;
+		timeout.bucket = -1;
+		size--;
 	}
 
-	private class TimeoutComparator implements Comparator<Timeout> {
+	public int getNumberOfKeepAliveTimeouts() {
+		return keepAlives;
+	}
 
-		@Override
-		public int compare(Timeout lhs, Timeout rhs) {
-			if (lhs == rhs) {
-				return 0;
-			}
-			long diff = lhs.getTimeout() - rhs.getTimeout();
-			if (diff <= 0) {
-				return -1;
-			}
-			return 1; // / else if (diff > 0) {
-		}
+	public int getNumberOfTimeouts() {
+		return size;
 	}
 
 }
@@ -31,9 +31,20 @@ import io.github.ilmich.floppyt.web.AsyncCallback;
 
 public class Timeout {
 
-	private final long timeout;
+	private long timeout;
 	private final AsyncCallback cb;
 	private boolean cancelled = false;
+
+	/**
+	 * Kind and links of the wheel bucket this timeout is scheduled in, owned by
+	 * the {@link JMXTimeoutManager}
+	 */
+	boolean keepAlive;
+	boolean suspended;
+	int bucket = -1;
+	long rounds;
+	Timeout prev;
+	Timeout next;
 	
 	public Timeout(long timeout, AsyncCallback cb) {
 		this.timeout = timeout;
@@ -44,6 +55,10 @@ public class Timeout {
 		return timeout;
 	}
 
+	void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
 	public void cancel() {
 		cancelled = true;
 	}
@@ -56,6 +71,13 @@ public class Timeout {
 		return cancelled ? AsyncCallback.nopCb : cb;
 	}
 
+	/**
+	 * @return true if the timeout is waiting in the wheel
+	 */
+	boolean isScheduled() {
+		return bucket >= 0;
+	}
+
 	public static Timeout newKeepAliveTimeout(SelectableChannel clientChannel, long keepAliveTimeout,
 			ServerConnector conn) {
 		return new Timeout(System.currentTimeMillis() + keepAliveTimeout, new AsyncCallback() {
@@ -24,26 +24,38 @@ SOFTWARE.
 package io.github.ilmich.floppyt.metrics;
 
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * A monotonic counter. Increments go to striped cells, so that threads counting
+ * together don't contend on one value; the cells are summed when read.
+ */
 public class Counter extends Metric {
 	
-	protected AtomicLong value = new AtomicLong();
+	private final LongAdder value = new LongAdder();
 	
-	public Counter(Map<String, String> labels) {
+	public Counter(Labels labels) {
 		super(labels);		
 	}
 	
+	/**
+	 * @deprecated labels are bound once, use {@link #Counter(Labels)}
+	 */
+	@Deprecated
+	public Counter(Map<String, String> labels) {
+		this(Labels.of(labels));
+	}
+	
 	public Long value() {
-		return this.value.longValue();
+		return this.value.sum();
 	}
 
-	public Long increment() {
-		return value.incrementAndGet();
+	public void increment() {
+		value.increment();
 	}
 	
-	public Long increment(Long delta) {
-		return value.addAndGet(delta);
+	public void increment(long delta) {
+		value.add(delta);
 	}
 	
 	@Override
@@ -0,0 +1,198 @@
+/*
+MIT License
+
+Copyright (c) 2020 Michele Zuccalà
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package io.github.ilmich.floppyt.metrics;
+
+import io.github.ilmich.floppyt.util.DynamicByteBuffer;
+
+/**
+ * Writes metrics in the Prometheus text format (0.0.4), or in the OpenMetrics
+ * one, straight into a byte buffer: names and numbers are encoded in place and
+ * labels come pre-encoded, so that a scrape builds no strings. Not thread-safe,
+ * use one per scrape.
+ */
+public class ExpositionEncoder {
+
+	public static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	public static final String OPENMETRICS_CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+	private static final String TOTAL = "_total";
+
+	private final boolean openMetrics;
+	private final byte[] digits = new byte[20];
+
+	public ExpositionEncoder(boolean openMetrics) {
+		this.openMetrics = openMetrics;
+	}
+
+	/**
+	 * @return true if the Accept header of a scrape asks for OpenMetrics
+	 */
+	public static boolean acceptsOpenMetrics(String accept) {
+		return accept != null && accept.contains("application/openmetrics-text");
+	}
+
+	public String getContentType() {
+		return openMetrics ? OPENMETRICS_CONTENT_TYPE : PROMETHEUS_CONTENT_TYPE;
+	}
+
+	/**
+	 * Writes a family and all its metrics
+	 */
+	public void encode(MetricFamily<?> family, DynamicByteBuffer out) {
+		final String name = family.getName();
+		final String type = family.getType();
+		final boolean counter = type.equals("counter");
+		type(name, type, out);
+		for (Metric metric : family.collect()) {
+			if (metric instanceof Histogram) {
+				histogram(name, (Histogram) metric, out);
+			} else {
+				ascii(name, out);
+				if (counter && openMetrics && !name.endsWith(TOTAL)) { // the samples of counters end with _total
+					ascii(TOTAL, out);
+				}
+				out.put(metric.labels.getEncoded());
+				out.put((byte) ' ');
+				number(metric.value().longValue(), out);
+				out.put((byte) '\n');
+			}
+		}
+	}
+
+	/**
+	 * Writes a metric without labels, and its type
+	 */
+	public void encode(String name, String type, long value, DynamicByteBuffer out) {
+		type(name, type, out);
+		ascii(name, out);
+		if (openMetrics && type.equals("counter") && !name.endsWith(TOTAL)) {
+			ascii(TOTAL, out);
+		}
+		out.put((byte) ' ');
+		number(value, out);
+		out.put((byte) '\n');
+	}
+
+	/**
+	 * Writes a metric without labels, and its type
+	 */
+	public void encode(String name, String type, double value, DynamicByteBuffer out) {
+		type(name, type, out);
+		ascii(name, out);
+		if (openMetrics && type.equals("counter") && !name.endsWith(TOTAL)) {
+			ascii(TOTAL, out);
+		}
+		out.put((byte) ' ');
+		number(value, out);
+		out.put((byte) '\n');
+	}
+
+	/**
+	 * Ends the exposition: required by OpenMetrics
+	 */
+	public void end(DynamicByteBuffer out) {
+		if (openMetrics) {
+			ascii("# EOF\n", out);
+		}
+	}
+
+	private void type(String name, String type, DynamicByteBuffer out) {
+		ascii("# TYPE ", out);
+		if (openMetrics && type.equals("counter") && name.endsWith(TOTAL)) { // named without the suffix
+			ascii(name, 0, name.length() - TOTAL.length(), out);
+		} else {
+			ascii(name, out);
+		}
+		out.put((byte) ' ');
+		ascii(type, out);
+		out.put((byte) '\n');
+	}
+
+	private void histogram(String name, Histogram histogram, DynamicByteBuffer out) {
+		final Histogram.Buckets buckets = histogram.getBuckets();
+		final byte[] open = histogram.labels.getOpen();
+		final long[] counts = histogram.snapshot();
+		for (int i = 0; i < counts.length; i++) {
+			ascii(name, out);
+			ascii("_bucket", out);
+			out.put(open);
+			ascii("le=\"", out);
+			ascii(buckets.getExposedBound(i), out);
+			ascii("\"} ", out);
+			number(counts[i], out);
+			out.put((byte) '\n');
+		}
+		ascii(name, out);
+		ascii("_sum", out);
+		out.put(histogram.labels.getEncoded());
+		out.put((byte) ' ');
+		number(histogram.getSum(), out);
+		out.put((byte) '\n');
+		ascii(name, out);
+		ascii("_count", out);
+		out.put(histogram.labels.getEncoded());
+		out.put((byte) ' ');
+		number(counts[counts.length - 1], out);
+		out.put((byte) '\n');
+	}
+
+	private static void ascii(String s, DynamicByteBuffer out) {
+		ascii(s, 0, s.length(), out);
+	}
+
+	private static void ascii(String s, int from, int to, DynamicByteBuffer out) {
+		for (int i = from; i < to; i++) {
+			out.put((byte) s.charAt(i));
+		}
+	}
+
+	private void number(long value, DynamicByteBuffer out) {
+		if (value == Long.MIN_VALUE) {
+			ascii(Long.toString(value), out);
+			return;
+		}
+		if (value < 0) {
+			out.put((byte) '-');
+			value = -value;
+		}
+		int start = digits.length;
+		do {
+			digits[--start] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value > 0);
+		out.put(digits, start, digits.length - start);
+	}
+
+	private void number(double value, DynamicByteBuffer out) {
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			number((long) value, out);
+		} else if (Double.isNaN(value)) {
+			ascii("NaN", out);
+		} else if (Double.isInfinite(value)) {
+			ascii(value > 0 ? "+Inf" : "-Inf", out);
+		} else {
+			ascii(Double.toString(value), out);
+		}
+	}
+}
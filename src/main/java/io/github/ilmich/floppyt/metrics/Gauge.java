@@ -24,22 +24,45 @@ SOFTWARE.
 package io.github.ilmich.floppyt.metrics;
 
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class Gauge extends Counter {
+public class Gauge extends Metric {
 	
-	public Gauge(Map<String, String> labels) {
+	private final AtomicLong value = new AtomicLong();
+	
+	public Gauge(Labels labels) {
 		super(labels);	
 	}
+	
+	/**
+	 * @deprecated labels are bound once, use {@link #Gauge(Labels)}
+	 */
+	@Deprecated
+	public Gauge(Map<String, String> labels) {
+		this(Labels.of(labels));
+	}
+	
+	public Long value() {
+		return this.value.get();
+	}
+
+	public long increment() {
+		return value.incrementAndGet();
+	}
+	
+	public long increment(long delta) {
+		return value.addAndGet(delta);
+	}
 			
-	public Long decrement() {
+	public long decrement() {
 		return value.decrementAndGet();
 	}
 	
-	public Long decrement(Long val) {
-		return this.increment(-val);
+	public long decrement(long delta) {
+		return value.addAndGet(-delta);
 	}
 
-	public Long set(Long val) {
+	public long set(long val) {
 		value.set(val);
 		return val;
 	}
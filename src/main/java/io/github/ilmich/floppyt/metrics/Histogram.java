@@ -0,0 +1,176 @@
+/*
+MIT License
+
+Copyright (c) 2020 Michele Zuccalà
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package io.github.ilmich.floppyt.metrics;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram with log-linear buckets, in the manner of HdrHistogram: each
+ * power of two is split in 2^subBits linear buckets. A value finds its bucket
+ * with a few shifts, and recording it is two atomic additions, without locks
+ * nor allocation.
+ */
+public class Histogram extends Metric {
+
+	/**
+	 * The upper bounds (inclusive) of the buckets of histograms, and how they are
+	 * exposed
+	 */
+	public static final class Buckets {
+
+		private final int minExponent;
+		private final int maxExponent;
+		private final int subBits;
+		private final double scale;
+		private final long[] bounds;
+		private final String[] exposed; // the bounds scaled, as le labels
+
+		private Buckets(int minExponent, int maxExponent, int subBits, double scale) {
+			if (subBits < 0 || minExponent < subBits || maxExponent <= minExponent || maxExponent > 62) {
+				throw new IllegalArgumentException("Invalid buckets");
+			}
+			this.minExponent = minExponent;
+			this.maxExponent = maxExponent;
+			this.subBits = subBits;
+			this.scale = scale;
+			int subBuckets = 1 << subBits;
+			this.bounds = new long[1 + (maxExponent - minExponent) * subBuckets];
+			bounds[0] = 1L << minExponent;
+			for (int exponent = minExponent; exponent < maxExponent; exponent++) {
+				for (int sub = 0; sub < subBuckets; sub++) {
+					bounds[1 + (exponent - minExponent) * subBuckets + sub] = (1L << exponent)
+							+ ((sub + 1L) << (exponent - subBits));
+				}
+			}
+			this.exposed = new String[bounds.length + 1];
+			for (int i = 0; i < bounds.length; i++) {
+				exposed[i] = BigDecimal.valueOf(bounds[i]).multiply(BigDecimal.valueOf(scale)).stripTrailingZeros()
+						.toPlainString();
+			}
+			exposed[bounds.length] = "+Inf";
+		}
+
+		/**
+		 * @param minExponent the first bucket holds the values up to 2^minExponent
+		 * @param maxExponent the last bucket but +Inf holds the values up to
+		 *                    2^maxExponent
+		 * @param subBits     each power of two is split in 2^subBits buckets
+		 * @param scale       multiplies the bounds to expose them, e.g. 1e-9 for
+		 *                    nanoseconds exposed as seconds
+		 */
+		public static Buckets logLinear(int minExponent, int maxExponent, int subBits, double scale) {
+			return new Buckets(minExponent, maxExponent, subBits, scale);
+		}
+
+		/**
+		 * @return the index of the bucket of the value, bounds.length (+Inf) if
+		 *         it's above the last bound
+		 */
+		int index(long value) {
+			long v = value - 1; // bounds are inclusive
+			if (v < bounds[0]) {
+				return 0;
+			}
+			int exponent = 63 - Long.numberOfLeadingZeros(v);
+			if (exponent >= maxExponent) {
+				return bounds.length;
+			}
+			int sub = (int) (v >>> (exponent - subBits)) & ((1 << subBits) - 1);
+			return 1 + ((exponent - minExponent) << subBits) + sub;
+		}
+
+		/**
+		 * @return the number of buckets, +Inf included
+		 */
+		public int size() {
+			return exposed.length;
+		}
+
+		/**
+		 * @return the le label of a bucket
+		 */
+		public String getExposedBound(int bucket) {
+			return exposed[bucket];
+		}
+	}
+
+	private final Buckets buckets;
+	private final AtomicLongArray counts;
+	private final LongAdder sum = new LongAdder();
+
+	public Histogram(Labels labels, Buckets buckets) {
+		super(labels);
+		this.buckets = buckets;
+		this.counts = new AtomicLongArray(buckets.size());
+	}
+
+	public void record(long value) {
+		counts.incrementAndGet(buckets.index(value));
+		sum.add(value);
+	}
+
+	public Buckets getBuckets() {
+		return buckets;
+	}
+
+	/**
+	 * @return the cumulative counts of the buckets, the last one (+Inf) being the
+	 *         count of values
+	 */
+	public long[] snapshot() {
+		long[] cumulative = new long[counts.length()];
+		long total = 0;
+		for (int i = 0; i < cumulative.length; i++) {
+			total += counts.get(i);
+			cumulative[i] = total;
+		}
+		return cumulative;
+	}
+
+	/**
+	 * @return the sum of the values, scaled
+	 */
+	public double getSum() {
+		return sum.sum() * buckets.scale;
+	}
+
+	/**
+	 * @return the count of values
+	 */
+	@Override
+	public Long value() {
+		long total = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			total += counts.get(i);
+		}
+		return total;
+	}
+
+	@Override
+	public String getType() {
+		return "histogram";
+	}
+}
@@ -0,0 +1,196 @@
+/*
+MIT License
+
+Copyright (c) 2020 Michele Zuccalà
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package io.github.ilmich.floppyt.metrics;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An immutable set of labels, bound once to a metric: its key and its
+ * exposition text are computed when it's created, not when the metric is
+ * updated or scraped.
+ */
+public final class Labels {
+
+	public static final Labels EMPTY = new Labels(new String[0], new String[0]);
+
+	private final String[] names;
+	private final String[] values;
+	private final String key;
+	private final String text; // {name="value",...}
+	private final byte[] encoded; // text, in UTF-8
+	private final byte[] open; // text without the closing brace, ready for one more label
+
+	private Labels(String[] names, String[] values) {
+		this.names = names;
+		this.values = values;
+		this.key = key(names, values);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < names.length; i++) {
+			sb.append(i == 0 ? '{' : ',').append(names[i]).append("=\"");
+			escape(values[i], sb);
+			sb.append('"');
+		}
+		String pairs = sb.toString();
+		this.text = names.length > 0 ? pairs + "}" : "";
+		this.encoded = text.getBytes(StandardCharsets.UTF_8);
+		this.open = (names.length > 0 ? pairs + "," : "{").getBytes(StandardCharsets.UTF_8);
+	}
+
+	public static Labels of(String[] names, String[] values) {
+		if (names.length != values.length) {
+			throw new IllegalArgumentException("Expected " + names.length + " label values, got " + values.length);
+		}
+		return names.length == 0 ? EMPTY : new Labels(names.clone(), values.clone());
+	}
+
+	/**
+	 * @param labels sorted by name
+	 */
+	public static Labels of(Map<String, String> labels) {
+		if (labels == null || labels.isEmpty()) {
+			return EMPTY;
+		}
+		Map<String, String> sorted = new TreeMap<String, String>(labels);
+		return new Labels(sorted.keySet().toArray(new String[0]), sorted.values().toArray(new String[0]));
+	}
+
+	/**
+	 * @param order the names of the labels, in the order wanted
+	 * @return the same labels in that order, this if they already are
+	 */
+	Labels orderedAs(String[] order) {
+		if (Arrays.equals(order, names)) {
+			return this;
+		}
+		if (order.length != names.length) {
+			throw new IllegalArgumentException("Expected the labels " + Arrays.toString(order) + ", got " + text);
+		}
+		String[] ordered = new String[order.length];
+		for (int i = 0; i < order.length; i++) {
+			for (int j = 0; j < names.length; j++) {
+				if (names[j].equals(order[i])) {
+					ordered[i] = values[j];
+				}
+			}
+			if (ordered[i] == null) {
+				throw new IllegalArgumentException("Expected the labels " + Arrays.toString(order) + ", got " + text);
+			}
+		}
+		return new Labels(order, ordered);
+	}
+
+	/**
+	 * @return the same labels sorted by name, this if they already are
+	 */
+	Labels sorted() {
+		String[] order = names.clone();
+		Arrays.sort(order);
+		return orderedAs(order);
+	}
+
+	/**
+	 * @return the key identifying the labels in their family
+	 */
+	static String key(String[] names, String[] values) {
+		if (values.length == 0) {
+			return "";
+		}
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < values.length; i++) {
+			sb.append(names[i]).append('\u0000').append(values[i]).append('\u0000');
+		}
+		return sb.toString();
+	}
+
+	private static void escape(String value, StringBuilder sb) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' || c == '"') {
+				sb.append('\\').append(c);
+			} else if (c == '\n') {
+				sb.append("\\n");
+			} else {
+				sb.append(c);
+			}
+		}
+	}
+
+	public String[] getNames() {
+		return names.clone();
+	}
+
+	public String[] getValues() {
+		return values.clone();
+	}
+
+	/**
+	 * @return the labels as a map, in their order
+	 */
+	public Map<String, String> toMap() {
+		Map<String, String> map = new LinkedHashMap<String, String>();
+		for (int i = 0; i < names.length; i++) {
+			map.put(names[i], values[i]);
+		}
+		return map;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public boolean isEmpty() {
+		return names.length == 0;
+	}
+
+	byte[] getEncoded() {
+		return encoded;
+	}
+
+	byte[] getOpen() {
+		return open;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof Labels && ((Labels) obj).key.equals(key);
+	}
+
+	@Override
+	public int hashCode() {
+		return key.hashCode();
+	}
+
+	/**
+	 * @return the labels as exposed to Prometheus: {name="value",...}, empty if
+	 *         there are none
+	 */
+	@Override
+	public String toString() {
+		return text;
+	}
+}
@@ -27,13 +27,21 @@ import java.util.Map;
 
 public abstract class Metric {
 	
-	public Map<String, String> labels = null;
+	public final Labels labels;
 	
-	public Metric(Map<String, String> labels) {
+	public Metric(Labels labels) {
 		super();
 		this.labels = labels;
 	}
 	
+	/**
+	 * @deprecated labels are bound once, use {@link #Metric(Labels)}
+	 */
+	@Deprecated
+	public Metric(Map<String, String> labels) {
+		this(Labels.of(labels));
+	}
+	
 	public abstract String getType();
 	
 	public abstract Number value();
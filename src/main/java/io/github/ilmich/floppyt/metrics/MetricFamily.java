@@ -0,0 +1,112 @@
+/*
+MIT License
+
+Copyright (c) 2020 Michele Zuccalà
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package io.github.ilmich.floppyt.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The metrics of a name, one per set of labels. A metric is created the first
+ * time its labels are asked for; callers keep the returned handle and update
+ * it without any further lookup.
+ * 
+ * <pre>
+ * MetricFamily&lt;Counter&gt; hits = Metrics.counter("cache_hits_total", "cache");
+ * Counter users = hits.labels("users"); // once
+ * users.increment(); // per event
+ * </pre>
+ */
+public abstract class MetricFamily<T extends Metric> {
+
+	private static final Comparator<Metric> BY_LABELS = new Comparator<Metric>() {
+		@Override
+		public int compare(Metric a, Metric b) {
+			return a.labels.getKey().compareTo(b.labels.getKey());
+		}
+	};
+
+	private final String name;
+	private final String type;
+	private final String[] labelNames; // null if free-form
+	private final ConcurrentHashMap<String, T> metrics = new ConcurrentHashMap<String, T>();
+
+	protected MetricFamily(String name, String type, String[] labelNames) {
+		this.name = name;
+		this.type = type;
+		this.labelNames = labelNames;
+	}
+
+	protected abstract T create(Labels labels);
+
+	public String getName() {
+		return name;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	/**
+	 * @param values the values of the labels the family was registered with, in
+	 *               the same order
+	 * @return the metric of the labels, to be kept by the caller
+	 */
+	public T labels(String... values) {
+		if (labelNames == null) {
+			throw new IllegalStateException(name + " has no declared labels");
+		}
+		T metric = metrics.get(Labels.key(labelNames, values));
+		return metric != null ? metric : get(Labels.of(labelNames, values));
+	}
+
+	/**
+	 * @param labels the labels, in any order: they are put in the declared order
+	 *               of the family, or sorted by name if it has none
+	 * @return the metric of the labels, to be kept by the caller
+	 */
+	public T get(Labels labels) {
+		labels = labelNames != null ? labels.orderedAs(labelNames) : labels.sorted();
+		T metric = metrics.get(labels.getKey());
+		if (metric == null) {
+			T created = create(labels);
+			metric = metrics.putIfAbsent(labels.getKey(), created);
+			if (metric == null) {
+				metric = created;
+			}
+		}
+		return metric;
+	}
+
+	/**
+	 * @return the metrics of the family, sorted by labels
+	 */
+	public List<T> collect() {
+		List<T> list = new ArrayList<T>(metrics.values());
+		Collections.sort(list, BY_LABELS);
+		return list;
+	}
+}
@@ -24,67 +24,137 @@ SOFTWARE.
 package io.github.ilmich.floppyt.metrics;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * The registry of the metric families. Register a family once, bind its labels
+ * once, and keep the handle: updating it is then a single increment.
+ */
 public class Metrics {
 	
-	public static final Map<String, List<Counter>> counters = new ConcurrentHashMap<String, List<Counter>>();
-	public static final Map<String, List<Gauge>> gauges = new ConcurrentHashMap<String, List<Gauge>>();
+	private static final Map<String, MetricFamily<?>> families = new ConcurrentHashMap<String, MetricFamily<?>>();
+
+	private static final Comparator<MetricFamily<?>> BY_NAME = new Comparator<MetricFamily<?>>() {
+		@Override
+		public int compare(MetricFamily<?> a, MetricFamily<?> b) {
+			return a.getName().compareTo(b.getName());
+		}
+	};
+	
+	/**
+	 * @param labelNames the names of the labels bound by
+	 *                   {@link MetricFamily#labels(String...)}
+	 */
+	public static MetricFamily<Counter> counter(String name, String... labelNames) {
+		return register(new MetricFamily<Counter>(name, "counter", labelNames.clone()) {
+			@Override
+			protected Counter create(Labels labels) {
+				return new Counter(labels);
+			}
+		});
+	}
+	
+	/**
+	 * @param labelNames the names of the labels bound by
+	 *                   {@link MetricFamily#labels(String...)}
+	 */
+	public static MetricFamily<Gauge> gauge(String name, String... labelNames) {
+		return register(new MetricFamily<Gauge>(name, "gauge", labelNames.clone()) {
+			@Override
+			protected Gauge create(Labels labels) {
+				return new Gauge(labels);
+			}
+		});
+	}
+
+	/**
+	 * @param labelNames the names of the labels bound by
+	 *                   {@link MetricFamily#labels(String...)}
+	 */
+	public static MetricFamily<Histogram> histogram(String name, final Histogram.Buckets buckets,
+			String... labelNames) {
+		return register(new MetricFamily<Histogram>(name, "histogram", labelNames.clone()) {
+			@Override
+			protected Histogram create(Labels labels) {
+				return new Histogram(labels, buckets);
+			}
+		});
+	}
+
+	/**
+	 * @return the family registered with the name, that one if none was
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T extends Metric> MetricFamily<T> register(MetricFamily<T> family) {
+		MetricFamily<?> registered = families.putIfAbsent(family.getName(), family);
+		if (registered == null) {
+			return family;
+		}
+		if (!registered.getType().equals(family.getType())) {
+			throw new IllegalArgumentException(family.getName() + " is already a " + registered.getType());
+		}
+		return (MetricFamily<T>) registered;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T extends Metric> MetricFamily<T> registered(String name, String type) {
+		MetricFamily<?> family = families.get(name);
+		return family != null && family.getType().equals(type) ? (MetricFamily<T>) family : null;
+	}
+
+	/**
+	 * @return the families registered, sorted by name
+	 */
+	public static List<MetricFamily<?>> collect() {
+		List<MetricFamily<?>> list = new ArrayList<MetricFamily<?>>(families.values());
+		Collections.sort(list, BY_NAME);
+		return list;
+	}
 	
 	public static Counter getCounter(String name) {
 		return getCounter(name, null);
 	}
 	
+	/**
+	 * Looks the counter up for each call: prefer keeping the handle of
+	 * {@link #counter(String, String...)}
+	 */
 	public static Counter getCounter(String name, Map<String, String> labels) {
-		String intMetric = name;
-		List<Counter> cc = new ArrayList<Counter>();
-		if (!counters.containsKey(intMetric)) {			
-			Counter c = new Counter(labels);
-			cc.add(c);
-			counters.put(intMetric, cc);
-			return c;
+		MetricFamily<Counter> family = registered(name, "counter");
+		if (family == null) {
+			family = register(new MetricFamily<Counter>(name, "counter", null) {
+				@Override
+				protected Counter create(Labels labels) {
+					return new Counter(labels);
+				}
+			});
 		}
-		
-		cc = counters.get(intMetric);
-		for (Counter counter : cc) {
-			if ((labels == null && counter.labels == null) 
-					|| counter.labels.equals(labels)) {
-				return counter;
-			} 
-		}
-		
-		Counter c = new Counter(labels);
-		cc.add(c);
-		return c;		
+		return family.get(Labels.of(labels));
 	}
 	
 	public static Gauge getGauge(String name) {
 		return getGauge(name, null);
 	}
 	
+	/**
+	 * Looks the gauge up for each call: prefer keeping the handle of
+	 * {@link #gauge(String, String...)}
+	 */
 	public static Gauge getGauge(String name, Map<String, String> labels) {
-		String intMetric = name;
-		List<Gauge> cc = new ArrayList<Gauge>();
-		if (!gauges.containsKey(intMetric)) {			
-			Gauge c = new Gauge(labels);
-			cc.add(c);
-			gauges.put(intMetric, cc);
-			return c;
-		}
-		
-		cc = gauges.get(intMetric);		
-		for (Gauge counter : cc) {			
-			if ((labels == null && counter.labels == null) 
-					|| counter.labels.equals(labels)) {
-				return counter;
-			} 
+		MetricFamily<Gauge> family = registered(name, "gauge");
+		if (family == null) {
+			family = register(new MetricFamily<Gauge>(name, "gauge", null) {
+				@Override
+				protected Gauge create(Labels labels) {
+					return new Gauge(labels);
+				}
+			});
 		}
-		
-		Gauge c = new Gauge(labels);
-		cc.add(c);
-		return c;
+		return family.get(Labels.of(labels));
 	}
 
 }
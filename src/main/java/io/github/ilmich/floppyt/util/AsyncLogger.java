@@ -0,0 +1,210 @@
+/*
+MIT License
+
+Copyright (c) 2020 Michele Zuccalà
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package io.github.ilmich.floppyt.util;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link Log.Logger} that keeps the I/O off the logging threads. They only
+ * publish their messages into a bounded lock-free ring buffer; a background
+ * thread formats them and writes them in batches. A message logged while the
+ * buffer is full is dropped and counted, the count being logged later.
+ * 
+ * <pre>
+ * Log.setLogger(new AsyncLogger("floppyt.log"));
+ * </pre>
+ */
+public class AsyncLogger extends Log.Logger {
+
+	private static final String TAG = "AsyncLogger";
+
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	/**
+	 * Size of the writes
+	 */
+	private static final int BATCH_SIZE = 64 * 1024;
+
+	/**
+	 * Pause of the writer when there is nothing to log
+	 */
+	private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private static final class Event {
+
+		private final long time;
+		private final int level;
+		private final String category;
+		private final String message;
+		private final Throwable ex;
+
+		private Event(long time, int level, String category, String message, Throwable ex) {
+			this.time = time;
+			this.level = level;
+			this.category = category;
+			this.message = message;
+			this.ex = ex;
+		}
+	}
+
+	private final RingBuffer<Event> events;
+	private final WritableByteChannel channel;
+	private final boolean ownsChannel;
+	private final Thread writer;
+	private final AtomicLong dropped = new AtomicLong();
+	private volatile boolean closed;
+
+	/**
+	 * Logs to the standard output
+	 */
+	public AsyncLogger() {
+		this(Channels.newChannel(new FileOutputStream(FileDescriptor.out)), DEFAULT_CAPACITY, false);
+	}
+
+	/**
+	 * Appends to a file
+	 */
+	public AsyncLogger(String file) throws IOException {
+		this(file, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Appends to a file
+	 * 
+	 * @param capacity the messages waiting to be written
+	 */
+	public AsyncLogger(String file, int capacity) throws IOException {
+		this(FileChannel.open(Paths.get(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND), capacity, true);
+	}
+
+	private AsyncLogger(WritableByteChannel channel, int capacity, boolean ownsChannel) {
+		this.events = new RingBuffer<Event>(capacity);
+		this.channel = channel;
+		this.ownsChannel = ownsChannel;
+		this.writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		}, "floppyt-logger");
+		writer.setDaemon(true);
+		writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				close();
+			}
+		}));
+	}
+
+	@Override
+	public void log(int level, String category, String message, Throwable ex) {
+		if (closed || !events.offer(new Event(System.currentTimeMillis(), level, category, message, ex))) {
+			dropped.incrementAndGet();
+		}
+	}
+
+	private void drain() {
+		final StringBuilder batch = new StringBuilder(BATCH_SIZE);
+		final String lineSeparator = System.lineSeparator();
+		long reported = 0;
+		for (;;) {
+			final boolean last = closed;
+			Event event;
+			while ((event = events.poll()) != null) {
+				batch.append(format(event.time, event.level, event.category, event.message, event.ex));
+				batch.append(lineSeparator);
+				if (batch.length() >= BATCH_SIZE) {
+					write(batch);
+				}
+			}
+			long lost = dropped.get();
+			if (lost != reported) {
+				batch.append(format(System.currentTimeMillis(), Log.LEVEL_WARN, TAG,
+						(lost - reported) + " log messages dropped, the buffer was full", null));
+				batch.append(lineSeparator);
+				reported = lost;
+			}
+			write(batch);
+			if (last) {
+				return;
+			}
+			LockSupport.parkNanos(IDLE_NANOS);
+		}
+	}
+
+	private void write(StringBuilder batch) {
+		if (batch.length() == 0) {
+			return;
+		}
+		ByteBuffer bytes = ByteBuffer.wrap(batch.toString().getBytes(StandardCharsets.UTF_8));
+		batch.setLength(0);
+		try {
+			while (bytes.hasRemaining()) {
+				channel.write(bytes);
+			}
+		} catch (IOException e) {
+			System.err.println("Can't write the log: " + e); // not through ourselves
+		}
+	}
+
+	/**
+	 * Writes the messages logged so far and stops the writer
+	 */
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (ownsChannel) {
+			Closeables.closeQuietly(channel);
+		}
+	}
+
+	/**
+	 * @return the messages dropped because the buffer was full
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+}
@@ -23,35 +23,56 @@ SOFTWARE.
 */
 package io.github.ilmich.floppyt.util;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Date;
 import java.util.Locale;
-import java.util.TimeZone;
 import java.util.regex.Pattern;
 
+/**
+ * RFC 1123 dates of the HTTP headers. {@link DateTimeFormatter} is immutable,
+ * so no formatting or parsing takes a lock.
+ */
 public class DateUtil {
 
 	private final static Locale LOCALE = Locale.US;
-	private final static TimeZone GMT_ZONE;
-	private final static String RFC_1123_PATTERN = "EEE, dd MMM yyyy HH:mm:ss zzz";
-	private final static DateFormat RFC_1123_FORMAT;
+	private final static String RFC_1123_PATTERN = "EEE, dd MMM yyyy HH:mm:ss 'GMT'";
+	private final static DateTimeFormatter RFC_1123_FORMAT = DateTimeFormatter.ofPattern(RFC_1123_PATTERN, LOCALE)
+			.withZone(ZoneOffset.UTC);
 
 	/** Pattern to find digits only. */
 	private final static Pattern DIGIT_PATTERN = Pattern.compile("^\\d+$");
 
-	static {
-		RFC_1123_FORMAT = new SimpleDateFormat(DateUtil.RFC_1123_PATTERN, DateUtil.LOCALE);
-		GMT_ZONE = TimeZone.getTimeZone("GMT");
-		DateUtil.RFC_1123_FORMAT.setTimeZone(DateUtil.GMT_ZONE);
+	/**
+	 * The current second and its rendering, replaced by the first caller of a new
+	 * second
+	 */
+	private static volatile CurrentDate current = new CurrentDate(System.currentTimeMillis() / 1000);
+
+	private static final class CurrentDate {
+
+		private final long second;
+		private final String text;
+
+		CurrentDate(long second) {
+			this.second = second;
+			this.text = RFC_1123_FORMAT.format(Instant.ofEpochSecond(second));
+		}
 	}
 
+	/**
+	 * @return the current date, rendered at most once per second
+	 */
 	public static String getCurrentAsString() {
-		synchronized (DateUtil.RFC_1123_FORMAT) {
-			return DateUtil.RFC_1123_FORMAT.format(new Date());
+		final long second = System.currentTimeMillis() / 1000;
+		CurrentDate date = current;
+		if (date.second != second) { // racing threads render the same string
+			date = new CurrentDate(second);
+			current = date;
 		}
+		return date.text;
 	}
 
 	/**
@@ -62,10 +83,12 @@ public class DateUtil {
 	 * @return the parsed <code>Date</code> in milliseconds.
 	 */
 	private static long parseDateStringToMilliseconds(final String dateString) {
-		synchronized (DateUtil.RFC_1123_FORMAT) {
-			try {
-				return DateUtil.RFC_1123_FORMAT.parse(dateString).getTime();
-			} catch (final ParseException e) {
+		try {
+			return Instant.from(RFC_1123_FORMAT.parse(dateString)).toEpochMilli();
+		} catch (final DateTimeParseException e) {
+			try { // other zones, or single digit days
+				return Instant.from(DateTimeFormatter.RFC_1123_DATE_TIME.parse(dateString)).toEpochMilli();
+			} catch (final DateTimeParseException e1) {
 				return 0;
 			}
 		}
@@ -102,13 +125,7 @@ public class DateUtil {
 	 * @return a <code>String</code> representation of the date.
 	 */
 	public static String parseToRFC1123(final long dateValue) {
-
-		final Calendar calendar = Calendar.getInstance();
-		calendar.setTimeInMillis(dateValue);
-
-		synchronized (DateUtil.RFC_1123_FORMAT) {
-			return DateUtil.RFC_1123_FORMAT.format(calendar.getTime());
-		}
+		return RFC_1123_FORMAT.format(Instant.ofEpochMilli(dateValue));
 	}
 
 	/**
@@ -119,9 +136,7 @@ public class DateUtil {
 	 * @return a <code>String</code> representation of the date.
 	 */
 	public static String getDateAsString(Date date) {
-		synchronized (DateUtil.RFC_1123_FORMAT) {
-			return RFC_1123_FORMAT.format(date);
-		}
+		return RFC_1123_FORMAT.format(date.toInstant());
 	}
 
 }
@@ -46,6 +46,21 @@ public class DynamicByteBuffer {
 		return new DynamicByteBuffer(ByteBuffer.allocate(capacity));
 	}
 
+	/**
+	 * Wraps the (heap) buffer: its position is where the next data is appended.
+	 */
+	public static DynamicByteBuffer wrap(ByteBuffer bb) {
+		return new DynamicByteBuffer(bb);
+	}
+
+	/**
+	 * Append a byte. Will reallocate if needed.
+	 */
+	public void put(byte b) {
+		ensureCapacity(1);
+		backend.put(b);
+	}
+
 	/**
 	 * Append the data. Will reallocate if needed.
 	 */
@@ -62,6 +77,18 @@ public class DynamicByteBuffer {
 		backend.put(src);
 	}
 
+	/**
+	 * Append count bytes from the given src, starting at its position (which is
+	 * advanced). Works with direct buffers too. Will reallocate if needed.
+	 */
+	public void put(ByteBuffer src, int count) {
+		ensureCapacity(count);
+		int limit = src.limit();
+		src.limit(src.position() + count);
+		backend.put(src);
+		src.limit(limit);
+	}
+
 	/**
 	 * Append count bytes in the given byte array start at array position
 	 * 
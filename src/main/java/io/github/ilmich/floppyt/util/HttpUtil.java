@@ -24,19 +24,17 @@ SOFTWARE.
 package io.github.ilmich.floppyt.util;
 
 import java.io.File;
-import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32C;
 
 import io.github.ilmich.floppyt.web.http.Request;
 
 public class HttpUtil {
 
 	/*
-	 * MessageDigest are not thread-safe and are expensive to create. Do it lazily
-	 * for each thread that need access to one.
+	 * CRC32C is intrinsified by the JVM: a strong enough validator for a body,
+	 * at a fraction of the cost of a cryptographic digest.
 	 */
-	private static final ThreadLocal<MessageDigest> md = new ThreadLocal<MessageDigest>();
+	private static final ThreadLocal<CRC32C> crc = ThreadLocal.withInitial(CRC32C::new);
 
 	public static boolean verifyRequest(Request request) {
 		String version = request.getVersion();
@@ -50,23 +48,55 @@ public class HttpUtil {
 	}
 
 	public static String getEtag(byte[] bytes) {
-		if (md.get() == null) {
-			try {
-				md.set(MessageDigest.getInstance("MD5"));
-			} catch (NoSuchAlgorithmException e) {
-				throw new RuntimeException("MD5 cryptographic algorithm is not available.", e);
-			}
-		}
-		byte[] digest = md.get().digest(bytes);
-		BigInteger number = new BigInteger(1, digest);
-		// prepend a '0' to get a proper MD5 hash
-		return '0' + number.toString(16);
+		return getEtag(bytes, 0, bytes.length);
+	}
 
+	/**
+	 * @return a strong ETag from the length and the CRC32C of the body
+	 */
+	public static String getEtag(byte[] bytes, int offset, int length) {
+		CRC32C checksum = crc.get();
+		checksum.reset();
+		checksum.update(bytes, offset, length);
+		return '"' + Integer.toHexString(length) + '-' + Long.toHexString(checksum.getValue()) + '"';
 	}
 
 	public static String getEtag(File file) {
-		// TODO RS 101011 Implement if etag response header should be present
-		// while static file serving.
-		return "";
+		return getEtag(file.length(), file.lastModified());
+	}
+
+	/**
+	 * @return a strong ETag from the size and the modification time of a file,
+	 *         known without reading it
+	 */
+	public static String getEtag(long length, long lastModified) {
+		return '"' + Long.toHexString(length) + '-' + Long.toHexString(lastModified) + '"';
+	}
+
+	/**
+	 * Weak comparison of the ETag with an If-None-Match header
+	 * 
+	 * @param ifNoneMatch the header: * or a list of ETags
+	 * @param etag        the current ETag of the resource
+	 * @return true if the client already has the resource
+	 */
+	public static boolean matchesEtag(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null || etag == null) {
+			return false;
+		}
+		final String opaque = etag.startsWith("W/") ? etag.substring(2) : etag;
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if (tag.equals("*")) {
+				return true;
+			}
+			if (tag.startsWith("W/")) {
+				tag = tag.substring(2);
+			}
+			if (tag.equals(opaque)) {
+				return true;
+			}
+		}
+		return false;
 	}
 }
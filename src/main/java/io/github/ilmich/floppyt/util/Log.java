@@ -22,8 +22,9 @@ package io.github.ilmich.floppyt.util;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 
 /** A low overhead, lightweight logging system.
  * @author Nathan Sweet <misc@n4te.com> */
@@ -56,7 +57,8 @@ public class Log {
 	/** True when the TRACE level will be logged. */
 	static public boolean TRACE = level <= LEVEL_TRACE;
 
-	static private SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSSZ");
+	static private final DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSZ")
+		.withZone(ZoneId.systemDefault());
 
 	/** Sets the level to log. If a version of this class is being used that has a final log level, this has no affect. */
 	static public void set (int level) {
@@ -188,9 +190,16 @@ public class Log {
 	static public class Logger {
 
 		public void log (int level, String category, String message, Throwable ex) {
+			print(format(System.currentTimeMillis(), level, category, message, ex));
+		}
+
+		/** Renders a log message logged at the given time, in milliseconds. */
+		protected String format (long time, int level, String category, String message, Throwable ex) {
 			StringBuilder builder = new StringBuilder(256);
 			
-			builder.append("[" + sdf.format(new Date()) + "]");
+			builder.append('[');
+			dateFormat.formatTo(Instant.ofEpochMilli(time), builder);
+			builder.append(']');
 			
 			switch (level) {
 			case LEVEL_ERROR:
@@ -225,7 +234,7 @@ public class Log {
 				builder.append(writer.toString().trim());
 			}
 
-			print(builder.toString());
+			return builder.toString();
 		}
 
 		/** Prints the message to System.out. Called by the default implementation of {@link #log(int, String, String, Throwable)}. */
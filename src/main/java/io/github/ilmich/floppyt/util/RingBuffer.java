@@ -0,0 +1,103 @@
+/*
+MIT License
+
+Copyright (c) 2020 Michele Zuccalà
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package io.github.ilmich.floppyt.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded lock-free multi-producer single-consumer ring buffer: any thread
+ * can offer, but only one thread may poll. A full buffer refuses the element
+ * instead of blocking the producer.
+ */
+final class RingBuffer<T> {
+
+	private final int mask;
+	private final Object[] slots;
+	/*
+	 * The sequence of a slot is its index while free for the lap of the producers,
+	 * and index + 1 once published: the volatile writes and reads of the
+	 * sequences order the accesses to the slots.
+	 */
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong(); // next slot to claim
+	private long head; // consumer side, next slot to poll
+
+	/**
+	 * @param capacity rounded up to a power of two
+	 */
+	RingBuffer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		mask = size - 1;
+		slots = new Object[size];
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * @return false if the buffer is full
+	 */
+	boolean offer(T value) {
+		long position = tail.get();
+		for (;;) {
+			int index = (int) position & mask;
+			long sequence = sequences.get(index);
+			if (sequence == position) {
+				if (tail.compareAndSet(position, position + 1)) {
+					slots[index] = value;
+					sequences.set(index, position + 1); // published
+					return true;
+				}
+				position = tail.get();
+			} else if (sequence < position) { // not consumed yet, a lap behind
+				return false;
+			} else { // claimed by another producer
+				position = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * @return the oldest element, or null if the buffer is empty or its producer
+	 *         is still writing it
+	 */
+	@SuppressWarnings("unchecked")
+	T poll() {
+		int index = (int) head & mask;
+		if (sequences.get(index) != head + 1) {
+			return null;
+		}
+		T value = (T) slots[index];
+		slots[index] = null;
+		sequences.set(index, head + slots.length); // free for the next lap
+		head++;
+		return value;
+	}
+
+	int capacity() {
+		return slots.length;
+	}
+}
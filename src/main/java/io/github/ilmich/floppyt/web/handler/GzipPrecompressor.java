@@ -0,0 +1,164 @@
+/*
+MIT License
+
+Copyright (c) 2020 Michele Zuccalà
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package io.github.ilmich.floppyt.web.handler;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import io.github.ilmich.floppyt.util.Closeables;
+import io.github.ilmich.floppyt.util.Log;
+
+/**
+ * Builds the precompressed siblings (app.js.gz for app.js) served by the
+ * {@link StaticContentHandler}, for the compressible files of a directory tree
+ * whose sibling is missing or older than the file. The files are compressed in
+ * parallel, once, at the highest level, so that serving them costs no CPU.
+ */
+public class GzipPrecompressor {
+
+	private static final String TAG = "GzipPrecompressor";
+
+	/**
+	 * Smaller files are not worth compressing
+	 */
+	private static final long MIN_SIZE = 256;
+
+	private static final Set<String> COMPRESSIBLE = new HashSet<String>(Arrays.asList(".html", ".htm", ".css",
+			".js", ".mjs", ".json", ".map", ".xml", ".svg", ".txt", ".csv"));
+
+	/**
+	 * Compresses the files of the tree, waiting for them.
+	 * 
+	 * @return the number of files compressed
+	 */
+	public static int precompress(File root) {
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			int compressed = pool.invoke(new CompressTask(root));
+			Log.info(TAG, compressed + " files precompressed in " + root.getPath());
+			return compressed;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static boolean isCompressible(File file) {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		return dot >= 0 && COMPRESSIBLE.contains(name.substring(dot).toLowerCase()) && file.length() >= MIN_SIZE;
+	}
+
+	/**
+	 * Writes the sibling through a temporary file, so that it's never served
+	 * half written, and drops it if it's not smaller than the file
+	 * 
+	 * @return true if the sibling has been written
+	 */
+	private static boolean compress(File file) {
+		File gz = new File(file.getPath() + ".gz");
+		if (gz.isFile() && gz.lastModified() >= file.lastModified()) {
+			return false; // up to date
+		}
+		File tmp = new File(file.getPath() + ".gz.tmp");
+		InputStream in = null;
+		OutputStream out = null;
+		try {
+			in = new FileInputStream(file);
+			out = new GZIPOutputStream(new FileOutputStream(tmp), 64 * 1024) {
+				{
+					def.setLevel(Deflater.BEST_COMPRESSION);
+				}
+			};
+			byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				out.write(buffer, 0, read);
+			}
+			out.close();
+			if (tmp.length() >= file.length()) {
+				tmp.delete();
+				return false;
+			}
+			Files.move(tmp.toPath(), gz.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			return true;
+		} catch (IOException e) {
+			Log.error(TAG, "Error compressing " + file.getPath() + ": " + e.getMessage());
+			tmp.delete();
+			return false;
+		} finally {
+			Closeables.closeQuietly(in);
+			Closeables.closeQuietly(out);
+		}
+	}
+
+	/**
+	 * Compresses a file, or the files of a directory with a task per entry
+	 */
+	@SuppressWarnings("serial")
+	private static class CompressTask extends RecursiveTask<Integer> {
+
+		private final File file;
+
+		CompressTask(File file) {
+			this.file = file;
+		}
+
+		@Override
+		protected Integer compute() {
+			if (!file.isDirectory()) {
+				return isCompressible(file) && compress(file) ? 1 : 0;
+			}
+			File[] children = file.listFiles();
+			if (children == null) {
+				return 0;
+			}
+			List<CompressTask> tasks = new ArrayList<CompressTask>(children.length);
+			for (File child : children) {
+				tasks.add(new CompressTask(child));
+			}
+			int compressed = 0;
+			for (CompressTask task : invokeAll(tasks)) {
+				compressed += task.join();
+			}
+			return compressed;
+		}
+	}
+
+}
@@ -23,60 +23,127 @@ SOFTWARE.
 */
 package io.github.ilmich.floppyt.web.handler;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
 
-import io.github.ilmich.floppyt.io.PlainIOHandler;
+import io.github.ilmich.floppyt.io.BufferPool;
 import io.github.ilmich.floppyt.io.connectors.ServerConnector;
-import io.github.ilmich.floppyt.metrics.Metric;
+import io.github.ilmich.floppyt.metrics.ExpositionEncoder;
+import io.github.ilmich.floppyt.metrics.MetricFamily;
 import io.github.ilmich.floppyt.metrics.Metrics;
-import io.github.ilmich.floppyt.web.http.HttpServerRequest;
+import io.github.ilmich.floppyt.util.DynamicByteBuffer;
 import io.github.ilmich.floppyt.web.http.HttpRequestHandler;
+import io.github.ilmich.floppyt.web.http.HttpServerDescriptor;
+import io.github.ilmich.floppyt.web.http.HttpServerRequest;
 import io.github.ilmich.floppyt.web.http.HttpServerResponse;
+import io.github.ilmich.floppyt.web.http.ResponseCompressor;
 
+/**
+ * Exposes the metrics to Prometheus, in the OpenMetrics format to the scrapers
+ * asking for it. The exposition is encoded straight into the response buffer
+ * and sent in chunks as it grows. With
+ * {@link HttpServerDescriptor#METRICS_CACHE_MILLIS} it is encoded once for all
+ * the scrapes of that period instead, and shared by them.
+ */
 public class PrometheusHandler extends HttpRequestHandler {
 
+	/**
+	 * Exposition sent as a chunk while the rest is encoded
+	 */
+	private static final int CHUNK_SIZE = 32 * 1024;
+
+	private static final class Snapshot {
+
+		private final long createdAt;
+		private final ByteBuffer body; // read-only
+
+		private Snapshot(long createdAt, ByteBuffer body) {
+			this.createdAt = createdAt;
+			this.body = body;
+		}
+	}
+
+	private volatile Snapshot prometheus;
+	private volatile Snapshot openMetrics;
+
 	@Override
 	public void get(HttpServerRequest request, HttpServerResponse response) {
-
-		response.write("# TYPE threads_active_count gauge\n");
-		response.write("threads_active_count "+ ServerConnector.executor.getActiveCount() + "\n");
-		
-		response.write("# TYPE threads_max_active_count gauge\n");
-		response.write("threads_max_active_count "+ ServerConnector.executor.getLargestPoolSize() + "\n");
-		
-		response.write("# TYPE http_keepalive_conn gauge\n");
-		response.write("http_keepalive_conn "+ ServerConnector.tm.getNumberOfKeepAliveTimeouts() + "\n");
-		
-		for (String name : Metrics.gauges.keySet()) {
-			response.write("# TYPE "+ name + " gauge\n");
-			for (Metric c : Metrics.gauges.get(name)) {
-				response.write(serializeMetric(name, c));
-				response.write("\n");
-			}
+		final boolean useOpenMetrics = ExpositionEncoder.acceptsOpenMetrics(request.getHeader("Accept"));
+		final ExpositionEncoder encoder = new ExpositionEncoder(useOpenMetrics);
+		response.setHeader("Content-Type", encoder.getContentType());
+		if (HttpServerDescriptor.METRICS_CACHE_MILLIS > 0) {
+			response.write(getSnapshot(encoder, useOpenMetrics));
+		} else {
+			encode(encoder, response);
 		}
-		for (String name : Metrics.counters.keySet()) {
-			response.write("# TYPE "+ name + " counter\n");
-			for (Metric c : Metrics.counters.get(name)) {
-				response.write(serializeMetric(name, c));
-				response.write("\n");
+	}
+
+	/**
+	 * @return the exposition encoded by the last scrape of the period; concurrent
+	 *         scrapers wait for a single encoding of a new one
+	 */
+	private ByteBuffer getSnapshot(ExpositionEncoder encoder, boolean useOpenMetrics) {
+		Snapshot snapshot = useOpenMetrics ? openMetrics : prometheus;
+		if (snapshot == null
+				|| System.currentTimeMillis() - snapshot.createdAt >= HttpServerDescriptor.METRICS_CACHE_MILLIS) {
+			synchronized (this) {
+				snapshot = useOpenMetrics ? openMetrics : prometheus;
+				long now = System.currentTimeMillis();
+				if (snapshot == null || now - snapshot.createdAt >= HttpServerDescriptor.METRICS_CACHE_MILLIS) {
+					DynamicByteBuffer out = DynamicByteBuffer
+							.allocate(snapshot != null ? snapshot.body.capacity() : CHUNK_SIZE);
+					encode(encoder, out, null);
+					out.flip();
+					snapshot = new Snapshot(now, out.getByteBuffer().asReadOnlyBuffer());
+					if (useOpenMetrics) {
+						openMetrics = snapshot;
+					} else {
+						prometheus = snapshot;
+					}
+				}
 			}
 		}
-		response.write(" ");
+		return snapshot.body.duplicate();
 	}
-	
-	private String serializeMetric(String name, Metric c) {
-		StringBuffer sb = new StringBuffer();
-		sb.append(name);
-		if (c.labels != null && !c.labels.isEmpty()) {
-			sb.append("{");
-			List<String> ser = new ArrayList<String>();
-			for (String label : c.labels.keySet()) {
-				ser.add(label + "=\"" + c.labels.get(label));
-			}			
-			sb.append(String.join(",", ser) + "}");
+
+	private void encode(ExpositionEncoder encoder, HttpServerResponse response) {
+		encode(encoder, response.getResponseData(), response);
+	}
+
+	/**
+	 * @param response flushed when the exposition exceeds a chunk, or null
+	 */
+	private void encode(ExpositionEncoder encoder, DynamicByteBuffer out, HttpServerResponse response) {
+		encoder.encode("threads_active_count", "gauge", ServerConnector.executor.getActiveCount(), out);
+		encoder.encode("threads_max_active_count", "gauge", ServerConnector.executor.getLargestPoolSize(), out);
+		encoder.encode("threads_queued_count", "gauge", ServerConnector.executor.getQueue().size(), out);
+		encoder.encode("buffer_pool_hits_total", "counter", BufferPool.countHits(), out);
+		encoder.encode("buffer_pool_misses_total", "counter", BufferPool.countMisses(), out);
+		encoder.encode("buffer_pool_outstanding", "gauge", BufferPool.countOutstanding(), out);
+		encoder.encode("static_cache_hits_total", "counter", StaticFileCache.countHits(), out);
+		encoder.encode("static_cache_misses_total", "counter", StaticFileCache.countMisses(), out);
+		encoder.encode("static_cache_evictions_total", "counter", StaticFileCache.countEvictions(), out);
+		encoder.encode("static_cache_bytes", "gauge", StaticFileCache.countBytes(), out);
+		long compressedIn = ResponseCompressor.countBytesIn();
+		long compressedOut = ResponseCompressor.countBytesOut();
+		encoder.encode("compression_responses_total", "counter", ResponseCompressor.countResponses(), out);
+		encoder.encode("compression_bytes_in_total", "counter", compressedIn, out);
+		encoder.encode("compression_bytes_out_total", "counter", compressedOut, out);
+		encoder.encode("compression_ratio", "gauge", compressedIn == 0 ? 0 : (double) compressedOut / compressedIn,
+				out);
+		encoder.encode("compression_cpu_seconds_total", "counter", ResponseCompressor.countNanos() / 1e9, out);
+		encoder.encode("http_keepalive_conn", "gauge", ServerConnector.countKeepAliveConnections(), out);
+		encoder.encode("http_open_conn", "gauge", ServerConnector.countConnections(), out);
+
+		for (MetricFamily<?> family : Metrics.collect()) {
+			encoder.encode(family, out);
+			if (response != null && out.position() >= CHUNK_SIZE) {
+				if (response.flush() < 0) { // the scraper is gone
+					return;
+				}
+				out = response.getResponseData(); // the flushed one belongs to the connection
+			}
 		}
-		return sb.append(" " + c.value()).toString();
+		encoder.end(out);
 	}
 
 }
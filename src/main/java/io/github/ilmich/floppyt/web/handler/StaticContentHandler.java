@@ -24,14 +24,23 @@ SOFTWARE.
 package io.github.ilmich.floppyt.web.handler;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import io.github.ilmich.floppyt.io.FileTransfer;
 
 import io.github.ilmich.floppyt.util.DateUtil;
+import io.github.ilmich.floppyt.util.HttpUtil;
 import io.github.ilmich.floppyt.web.http.HttpException;
 import io.github.ilmich.floppyt.web.http.HttpServerRequest;
 import io.github.ilmich.floppyt.web.http.HttpRequestHandler;
 import io.github.ilmich.floppyt.web.http.HttpServerResponse;
 import io.github.ilmich.floppyt.web.http.Request;
 import io.github.ilmich.floppyt.web.http.Response;
+import io.github.ilmich.floppyt.web.http.ResponseCompressor;
+import io.github.ilmich.floppyt.web.http.protocol.ByteRange;
 import io.github.ilmich.floppyt.web.http.protocol.HttpStatus;
 import io.github.ilmich.floppyt.web.http.protocol.MimeTypes;
 
@@ -42,12 +51,28 @@ import io.github.ilmich.floppyt.web.http.protocol.MimeTypes;
  * "Cache-Control: public" indicates that the response MAY be cached by any
  * cache, even if it would normally be non-cacheable or cacheable only within a
  * non- shared cache.
+ * 
+ * Files are validated by an ETag made of their size and modification time, so
+ * that If-None-Match is answered with 304 without reading them.
+ * 
+ * Ranges of a file (Range and If-Range headers) are served with status 206, a
+ * multipart/byteranges body when several ranges are requested.
+ * 
+ * A precompressed sibling of a file (app.js.gz for app.js), not older than the
+ * file, is sent instead of it to the clients accepting gzip.
  */
 
 public class StaticContentHandler extends HttpRequestHandler {
 
 	private final static StaticContentHandler instance = new StaticContentHandler();
 
+	/**
+	 * Prefix of the cache keys of the precompressed files
+	 */
+	private static final String GZIP_KEY = "gzip:";
+
+	private final StaticFileCache cache = new StaticFileCache();
+
 	public static StaticContentHandler getInstance() {
 		return instance;
 	}
@@ -73,6 +98,16 @@ public class StaticContentHandler extends HttpRequestHandler {
 	private void perform(final Request request, final Response response, boolean hasBody) {
 
 		final String path = request.getRequestedPath();
+		final String range = request.getHeader("Range");
+		final boolean gzip = range == null
+				&& ResponseCompressor.acceptsGzip(request.getHeader("Accept-Encoding"));
+		if (range == null) { // the whole file, maybe in memory
+			StaticFileCache.Entry cached = cache.get(path, gzip ? GZIP_KEY + path : null);
+			if (cached != null) {
+				perform(request, response, cached, hasBody);
+				return;
+			}
+		}
 		final File file = new File(path.substring(1)); // remove the leading '/'
 
 		if (!file.exists()) {
@@ -82,24 +117,148 @@ public class StaticContentHandler extends HttpRequestHandler {
 		}
 
 		final long lastModified = file.lastModified();
-		response.setHeader("Last-Modified", DateUtil.parseToRFC1123(lastModified));
-		response.setHeader("Cache-Control", "public");
+		final String lastModifiedDate = DateUtil.parseToRFC1123(lastModified);
 		String mimeType = MimeTypes.getContentType(file);
 		if ("text/plain".equals(mimeType)) {
 			mimeType += "; charset=utf-8";
 		}
+		final long length = file.length();
+		final File gz = new File(file.getPath() + ".gz");
+		final boolean hasVariant = gz.isFile() && gz.lastModified() >= lastModified; // else stale
+		final boolean precompressed = gzip && hasVariant;
+		// known from the metadata: a 304 is sent without opening the file
+		final String etag = precompressed ? HttpUtil.getEtag(gz) : HttpUtil.getEtag(length, lastModified);
+		setHeaders(response, lastModifiedDate, etag, mimeType, hasVariant);
+		if (isNotModified(request, lastModified, etag)) {
+			response.setStatus(HttpStatus.REDIRECTION_NOT_MODIFIED);
+			return;
+		}
+
+		if (precompressed) {
+			response.setHeader("Content-Encoding", "gzip");
+			StaticFileCache.Entry cached = hasBody
+					? cache.load(GZIP_KEY + path, gz, file, lastModified, mimeType, "gzip", true)
+					: null;
+			if (cached != null) {
+				response.write(cached.getBody());
+			} else if (hasBody) {
+				response.write(gz);
+			} else {
+				response.setHeader("Content-Length", String.valueOf(gz.length()));
+			}
+			return;
+		}
+
+		List<ByteRange> ranges = null;
+		final String ifRange = request.getHeader("If-Range"); // a date or a strong ETag
+		if (range != null && (ifRange == null || ifRange.equals(lastModifiedDate) || ifRange.equals(etag))) {
+			ranges = ByteRange.parse(range, length);
+		}
+
+		if (ranges == null) { // the whole file
+			StaticFileCache.Entry cached = hasBody ? cache.load(path, file, null, lastModified, mimeType, null, hasVariant)
+					: null;
+			if (cached != null) {
+				response.write(cached.getBody());
+			} else if (hasBody) {
+				response.write(file);
+			} else {
+				response.setHeader("Content-Length", String.valueOf(length));
+			}
+			return;
+		}
+		if (ranges.isEmpty()) {
+			response.setStatus(HttpStatus.CLIENT_ERROR_REQUESTED_RANGE_NOT_SATISFIABLE);
+			response.setHeader("Content-Range", "bytes */" + length);
+			return;
+		}
+
+		FileTransfer transfer;
+		try {
+			transfer = FileTransfer.open(file);
+		} catch (IOException e) {
+			throw new HttpException(HttpStatus.SERVER_ERROR_INTERNAL_SERVER_ERROR, "Can't read " + path);
+		}
+		response.setStatus(HttpStatus.SUCCESS_PARTIAL_CONTENT);
+		if (ranges.size() == 1) {
+			ByteRange single = ranges.get(0);
+			response.setHeader("Content-Range", single.toContentRange(length));
+			transfer.addRegion(single.getFirst(), single.getLength());
+		} else {
+			String boundary = Long.toHexString(System.nanoTime()) + Long.toHexString(lastModified);
+			response.setHeader("Content-Type", "multipart/byteranges; boundary=" + boundary);
+			for (ByteRange part : ranges) {
+				transfer.addBuffer(ascii("\r\n--" + boundary + "\r\nContent-Type: " + mimeType + "\r\nContent-Range: "
+						+ part.toContentRange(length) + "\r\n\r\n"));
+				transfer.addRegion(part.getFirst(), part.getLength());
+			}
+			transfer.addBuffer(ascii("\r\n--" + boundary + "--\r\n"));
+		}
+		if (hasBody) {
+			response.write(transfer);
+		} else {
+			response.setHeader("Content-Length", String.valueOf(transfer.getLength()));
+			transfer.close();
+		}
+	}
+
+	/**
+	 * Sends a file cached in memory
+	 */
+	private void perform(final Request request, final Response response, StaticFileCache.Entry cached,
+			boolean hasBody) {
+		setHeaders(response, cached.getLastModifiedDate(), cached.getEtag(), cached.getContentType(),
+				cached.hasVariant());
+		if (cached.getContentEncoding() != null) {
+			response.setHeader("Content-Encoding", cached.getContentEncoding());
+		}
+		if (isNotModified(request, cached.getLastModified(), cached.getEtag())) {
+			response.setStatus(HttpStatus.REDIRECTION_NOT_MODIFIED);
+			return;
+		}
+		if (hasBody) {
+			response.write(cached.getBody());
+		} else {
+			response.setHeader("Content-Length", String.valueOf(cached.getLength()));
+		}
+	}
+
+	private void setHeaders(final Response response, String lastModifiedDate, String etag, String mimeType,
+			boolean hasVariant) {
+		response.setHeader("Last-Modified", lastModifiedDate);
+		response.setHeader("ETag", etag);
+		response.setHeader("Cache-Control", "public");
+		response.setHeader("Accept-Ranges", "bytes");
 		response.setHeader("Content-Type", mimeType);
+		if (hasVariant) { // the body depends on the encodings accepted
+			response.setHeader("Vary", "Accept-Encoding");
+		}
+	}
+
+	/**
+	 * If-None-Match, when present, takes precedence over If-Modified-Since
+	 */
+	private boolean isNotModified(final Request request, long lastModified, String etag) {
+		final String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			return HttpUtil.matchesEtag(ifNoneMatch, etag);
+		}
 		final String ifModifiedSince = request.getHeader("If-Modified-Since");
 		if (ifModifiedSince != null) {
 			final long ims = DateUtil.parseToMilliseconds(ifModifiedSince);
-			if (lastModified <= ims) {
-				response.setStatus(HttpStatus.REDIRECTION_NOT_MODIFIED);
-				return;
-			}
+			return lastModified <= ims;
 		}
+		return false;
+	}
 
-		if (hasBody) {
-			response.write(file);
-		}
+	/**
+	 * Drops the files cached in memory
+	 */
+	public void clearCache() {
+		cache.clear();
+	}
+
+	private static ByteBuffer ascii(String data) {
+		return ByteBuffer.wrap(data.getBytes(StandardCharsets.US_ASCII));
 	}
 }
@@ -0,0 +1,291 @@
+/*
+MIT License
+
+Copyright (c) 2020 Michele Zuccalà
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package io.github.ilmich.floppyt.web.handler;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.github.ilmich.floppyt.util.Closeables;
+import io.github.ilmich.floppyt.util.DateUtil;
+import io.github.ilmich.floppyt.util.HttpUtil;
+import io.github.ilmich.floppyt.util.Log;
+import io.github.ilmich.floppyt.web.http.HttpServerDescriptor;
+
+/**
+ * Small static files kept in memory, in read-only direct buffers, with the
+ * values of their headers: a cached file is sent without touching the disk.
+ * The cache is bounded by HttpServerDescriptor.STATIC_CACHE_SIZE bytes and
+ * evicts the least recently used files first. A cached file is checked again
+ * (size and modification time) at most every STATIC_CACHE_REVALIDATE ms.
+ */
+public class StaticFileCache {
+
+	private static final String TAG = "StaticFileCache";
+
+	private static final AtomicLong hits = new AtomicLong();
+	private static final AtomicLong misses = new AtomicLong();
+	private static final AtomicLong evictions = new AtomicLong();
+	private static final AtomicLong bytes = new AtomicLong();
+
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long size;
+
+	/**
+	 * @return the cached file of the path, still up to date, or null
+	 */
+	public Entry get(String path) {
+		return get(path, null);
+	}
+
+	/**
+	 * Looks up the variant of a file the client prefers (its precompressed
+	 * sibling) first, then the file: a request counts as a single hit or miss.
+	 * 
+	 * @param variant the key of the variant, or null
+	 * @return the cached variant, else the cached file unless it has a variant
+	 *         which is not in memory, or null
+	 */
+	public Entry get(String path, String variant) {
+		if (HttpServerDescriptor.STATIC_CACHE_SIZE <= 0) {
+			return null;
+		}
+		Entry entry = variant != null ? lookup(variant) : null;
+		if (entry == null) {
+			entry = lookup(path);
+			if (entry != null && variant != null && entry.variant) { // the variant is read from the disk
+				entry = null;
+			}
+		}
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return entry;
+	}
+
+	/**
+	 * @return the cached file of the key, still up to date, or null
+	 */
+	private Entry lookup(String key) {
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(key);
+		}
+		if (entry == null) {
+			return null;
+		}
+		long now = System.currentTimeMillis();
+		if (now - entry.checkedAt >= HttpServerDescriptor.STATIC_CACHE_REVALIDATE) {
+			if (entry.file.lastModified() != entry.modified || entry.file.length() != entry.length
+					|| entry.isStale()) {
+				remove(key, entry); // changed or deleted
+				return null;
+			}
+			entry.checkedAt = now;
+		}
+		return entry;
+	}
+
+	/**
+	 * Reads the file in the cache, if the cache is enabled and the file small
+	 * enough
+	 * 
+	 * @param source          the file the content is compressed from, or null
+	 * @param lastModified    the modification time of the content sent
+	 * @param contentEncoding the encoding of the file (gzip), or null
+	 * @param variant         true if the content has other encodings
+	 * @return the cached file, or null
+	 */
+	public Entry load(String path, File file, File source, long lastModified, String contentType, String contentEncoding,
+			boolean variant) {
+		long length = file.length();
+		if (HttpServerDescriptor.STATIC_CACHE_SIZE <= 0 || length > HttpServerDescriptor.STATIC_CACHE_MAX_FILE_SIZE
+				|| length > HttpServerDescriptor.STATIC_CACHE_SIZE) {
+			return null;
+		}
+		long modified = file.lastModified();
+		ByteBuffer body = ByteBuffer.allocateDirect((int) length);
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			FileChannel channel = in.getChannel();
+			while (body.hasRemaining() && channel.read(body) >= 0) {
+			}
+		} catch (IOException e) {
+			Log.error(TAG, "Error caching " + file.getAbsolutePath() + ": " + e.getMessage());
+			return null;
+		} finally {
+			Closeables.closeQuietly(in);
+		}
+		body.flip();
+
+		Entry entry = new Entry(file, modified, source, lastModified, contentType, contentEncoding, variant,
+				body.asReadOnlyBuffer());
+		synchronized (this) {
+			Entry old = entries.put(path, entry);
+			if (old != null) {
+				size -= old.length;
+			}
+			size += entry.length;
+			Iterator<Entry> eldest = entries.values().iterator();
+			while (size > HttpServerDescriptor.STATIC_CACHE_SIZE && eldest.hasNext()) {
+				Entry evicted = eldest.next();
+				eldest.remove();
+				size -= evicted.length;
+				evictions.incrementAndGet();
+			}
+			bytes.set(size);
+		}
+		return entry;
+	}
+
+	private synchronized void remove(String path, Entry entry) {
+		if (entries.get(path) == entry) {
+			entries.remove(path);
+			size -= entry.length;
+			bytes.set(size);
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		size = 0;
+		bytes.set(0);
+	}
+
+	public static long countHits() {
+		return hits.get();
+	}
+
+	public static long countMisses() {
+		return misses.get();
+	}
+
+	public static long countEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return the bytes of the files in the cache
+	 */
+	public static long countBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * A cached file
+	 */
+	public static class Entry {
+
+		private final File file;
+		private final long modified; // of the file, to revalidate it
+		private final File source; // of a compressed file, or null
+		private final long lastModified;
+		private final long length;
+		private final String lastModifiedDate;
+		private final String etag;
+		private final String contentType;
+		private final String contentEncoding;
+		private final boolean variant;
+		private final ByteBuffer body;
+		private volatile long checkedAt = System.currentTimeMillis();
+
+		Entry(File file, long modified, File source, long lastModified, String contentType, String contentEncoding,
+				boolean variant, ByteBuffer body) {
+			this.file = file;
+			this.modified = modified;
+			this.source = source;
+			this.lastModified = lastModified;
+			this.length = body.remaining();
+			this.lastModifiedDate = DateUtil.parseToRFC1123(lastModified);
+			this.etag = HttpUtil.getEtag(length, modified);
+			this.contentType = contentType;
+			this.contentEncoding = contentEncoding;
+			this.variant = variant;
+			this.body = body;
+		}
+
+		/**
+		 * @return true if the file the content is compressed from changed since,
+		 *         or is newer than the compressed file
+		 */
+		private boolean isStale() {
+			if (source == null) {
+				return false;
+			}
+			long sourceModified = source.lastModified();
+			return sourceModified != lastModified || sourceModified > modified;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		public String getLastModifiedDate() {
+			return lastModifiedDate;
+		}
+
+		public String getEtag() {
+			return etag;
+		}
+
+		public String getContentType() {
+			return contentType;
+		}
+
+		/**
+		 * @return the encoding of the content (gzip), or null
+		 */
+		public String getContentEncoding() {
+			return contentEncoding;
+		}
+
+		/**
+		 * @return true if the content has other encodings (the response varies
+		 *         with Accept-Encoding)
+		 */
+		public boolean hasVariant() {
+			return variant;
+		}
+
+		public long getLength() {
+			return length;
+		}
+
+		/**
+		 * @return the content of the file, a duplicate to be sent
+		 */
+		public ByteBuffer getBody() {
+			return body.duplicate();
+		}
+	}
+
+}
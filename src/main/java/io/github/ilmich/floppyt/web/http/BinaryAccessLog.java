@@ -0,0 +1,249 @@
+/*
+MIT License
+
+Copyright (c) 2020 Michele Zuccalà
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package io.github.ilmich.floppyt.web.http;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.github.ilmich.floppyt.util.Closeables;
+import io.github.ilmich.floppyt.util.Log;
+
+/**
+ * An access log of every request in fixed-size binary records, appended to
+ * memory-mapped segment files: logging a request is a few absolute puts in the
+ * page cache, without allocation nor system calls.
+ * 
+ * A run of the server writes the segments access-&lt;run&gt;-&lt;n&gt;.bal,
+ * started when the previous one is full or older than
+ * {@link HttpServerDescriptor#ACCESS_LOG_ROTATE_INTERVAL}, and the dictionary
+ * access-&lt;run&gt;.paths of the ids of the paths. A segment starts with a
+ * header (magic, version, record size), followed by the records:
+ * 
+ * <pre>
+ *  0 time (ms since epoch), 0 for a record not written
+ *  8 latency (ns), from the request being read to the response being ready
+ * 16 bytes sent, headers included
+ * 24 bytes of the request body
+ * 32 path id, -1 if unknown
+ * 36 status code (short)
+ * 38 method ({@link io.github.ilmich.floppyt.web.http.protocol.HttpVerb} ordinal)
+ * 39 length of the remote address (4 or 16)
+ * 40 remote address
+ * </pre>
+ */
+public class BinaryAccessLog implements Closeable {
+
+	private static final String TAG = "BinaryAccessLog";
+
+	public static final int MAGIC = 0x464c414c; // FLAL
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 16;
+	public static final int RECORD_SIZE = 56;
+
+	static final int TIME = 0;
+	static final int LATENCY = 8;
+	static final int BYTES_OUT = 16;
+	static final int BYTES_IN = 24;
+	static final int PATH = 32;
+	static final int STATUS = 36;
+	static final int METHOD = 38;
+	static final int ADDRESS_LENGTH = 39;
+	static final int ADDRESS = 40;
+
+	/**
+	 * Distinct paths given an id; past this, requests are logged with the id of
+	 * their route
+	 */
+	private static final int MAX_PATHS = 1 << 16;
+
+	private static final class Segment {
+
+		private final MappedByteBuffer buffer;
+		private final AtomicInteger next = new AtomicInteger(HEADER_SIZE);
+		private final long openedAt = System.currentTimeMillis();
+
+		private Segment(MappedByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		/**
+		 * @return the offset of a record, -1 if the segment must be rotated
+		 */
+		private int claim(long now) {
+			if (now - openedAt >= HttpServerDescriptor.ACCESS_LOG_ROTATE_INTERVAL) {
+				return -1;
+			}
+			int offset = next.getAndAdd(RECORD_SIZE);
+			return offset <= buffer.capacity() - RECORD_SIZE ? offset : -1;
+		}
+	}
+
+	private final File dir;
+	private final long run = System.currentTimeMillis();
+	private int segments;
+	private volatile Segment current;
+	private volatile boolean closed;
+	private final ConcurrentHashMap<String, Integer> paths = new ConcurrentHashMap<String, Integer>();
+	private final FileChannel dictionary;
+	private final AtomicLong dropped = new AtomicLong();
+
+	public BinaryAccessLog(File dir) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Can't create " + dir);
+		}
+		this.dir = dir;
+		this.dictionary = FileChannel.open(new File(dir, "access-" + run + ".paths").toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		this.current = open();
+	}
+
+	/**
+	 * @return the dictionary of the paths of a segment
+	 */
+	public static File getDictionary(File segment) {
+		String name = segment.getName();
+		int end = name.lastIndexOf('-');
+		return new File(segment.getParentFile(), (end > 0 ? name.substring(0, end) : name) + ".paths");
+	}
+
+	private Segment open() throws IOException {
+		File file = new File(dir, "access-" + run + "-" + segments++ + ".bal");
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			// the mapping outlives the channel
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+					HttpServerDescriptor.ACCESS_LOG_SEGMENT_SIZE);
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, VERSION);
+			buffer.putInt(8, RECORD_SIZE);
+			return new Segment(buffer);
+		}
+	}
+
+	/**
+	 * @return the current segment, a new one if it's still the full one
+	 */
+	private synchronized Segment rotate(Segment full) throws IOException {
+		if (current == full && !closed) {
+			current = open(); // writers still in the old one finish there
+			full.buffer.force();
+		}
+		return current;
+	}
+
+	public void log(HttpServerRequest request, HttpServerResponse response) {
+		if (closed) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		Segment segment = current;
+		int offset;
+		try {
+			while ((offset = segment.claim(now)) < 0) {
+				segment = rotate(segment);
+			}
+		} catch (IOException e) {
+			if (dropped.getAndIncrement() == 0) {
+				Log.error(TAG, "Can't open a new segment in " + dir, e);
+			}
+			return;
+		}
+		final ByteBuffer buffer = segment.buffer;
+		buffer.putLong(offset + LATENCY, System.nanoTime() - request.getReceivedAt());
+		buffer.putLong(offset + BYTES_OUT, response.getSize());
+		buffer.putLong(offset + BYTES_IN, request.getContentLength());
+		buffer.putInt(offset + PATH, getPathId(request));
+		buffer.putShort(offset + STATUS, (short) response.getStatus().code());
+		buffer.put(offset + METHOD, (byte) request.getMethod().ordinal());
+		final byte[] address = request.getRemoteAddress(); // looked up once per connection
+		if (address != null) { // the bytes in network order, 4 (IPv4) or 16 (IPv6)
+			buffer.put(offset + ADDRESS_LENGTH, (byte) address.length);
+			for (int i = 0; i < address.length; i++) {
+				buffer.put(offset + ADDRESS + i, address[i]);
+			}
+		}
+		buffer.putLong(offset + TIME, now); // last: the record is complete
+	}
+
+	private int getPathId(HttpServerRequest request) {
+		String path = request.getRequestedPath();
+		Integer id = paths.get(path);
+		if (id != null) {
+			return id;
+		}
+		if (paths.size() >= MAX_PATHS) {
+			path = request.getRoute();
+			if (path == null) {
+				return -1;
+			}
+			id = paths.get(path);
+			if (id != null) {
+				return id;
+			}
+		}
+		synchronized (paths) {
+			id = paths.get(path);
+			if (id == null) {
+				id = paths.size();
+				ByteBuffer line = ByteBuffer.wrap((id + "\t" + path + "\n").getBytes(StandardCharsets.UTF_8));
+				try {
+					while (line.hasRemaining()) {
+						dictionary.write(line);
+					}
+				} catch (IOException e) {
+					Log.error(TAG, "Can't write the path dictionary", e);
+					return -1;
+				}
+				paths.put(path, id);
+			}
+			return id;
+		}
+	}
+
+	/**
+	 * @return the requests not logged, because a segment couldn't be opened
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		current.buffer.force();
+		Closeables.closeQuietly(dictionary);
+	}
+}
@@ -0,0 +1,158 @@
+/*
+MIT License
+
+Copyright (c) 2020 Michele Zuccalà
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package io.github.ilmich.floppyt.web.http;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.github.ilmich.floppyt.web.http.protocol.HttpVerb;
+
+/**
+ * Converts the segments of a {@link BinaryAccessLog} to text, or to CSV:
+ * 
+ * <pre>
+ * java -cp floppyt.jar io.github.ilmich.floppyt.web.http.BinaryAccessLogReader [--csv] segment.bal...
+ * </pre>
+ */
+public class BinaryAccessLogReader {
+
+	private static final HttpVerb[] METHODS = HttpVerb.values();
+
+	private final boolean csv;
+	private final Writer out;
+
+	public BinaryAccessLogReader(Writer out, boolean csv) {
+		this.out = out;
+		this.csv = csv;
+	}
+
+	public static void main(String[] args) throws IOException {
+		boolean csv = false;
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+		BinaryAccessLogReader reader = null;
+		for (String arg : args) {
+			if (arg.equals("--csv")) {
+				csv = true;
+				continue;
+			}
+			if (reader == null) {
+				reader = new BinaryAccessLogReader(out, csv);
+				if (csv) {
+					out.write("time,address,method,path,status,bytes_in,bytes_out,latency_us\n");
+				}
+			}
+			reader.read(new File(arg));
+		}
+		if (reader == null) {
+			System.err.println("usage: BinaryAccessLogReader [--csv] segment.bal...");
+			System.exit(1);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Writes the records of a segment
+	 */
+	public void read(File segment) throws IOException {
+		Map<Integer, String> paths = readDictionary(BinaryAccessLog.getDictionary(segment));
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (buffer.limit() < BinaryAccessLog.HEADER_SIZE || buffer.getInt(0) != BinaryAccessLog.MAGIC) {
+			throw new IOException(segment + " is not an access log segment");
+		}
+		if (buffer.getInt(4) != BinaryAccessLog.VERSION) {
+			throw new IOException(segment + ": unsupported version " + buffer.getInt(4));
+		}
+		final int recordSize = buffer.getInt(8);
+		StringBuilder line = new StringBuilder(256);
+		byte[] address = new byte[16];
+		for (int offset = BinaryAccessLog.HEADER_SIZE; offset <= buffer.limit() - recordSize; offset += recordSize) {
+			long time = buffer.getLong(offset + BinaryAccessLog.TIME);
+			if (time == 0) { // not written, or the rest of the segment
+				continue;
+			}
+			int addressLength = buffer.get(offset + BinaryAccessLog.ADDRESS_LENGTH);
+			String remote = "-";
+			if (addressLength == 4 || addressLength == 16) {
+				byte[] bytes = addressLength == 4 ? new byte[4] : address;
+				for (int i = 0; i < addressLength; i++) {
+					bytes[i] = buffer.get(offset + BinaryAccessLog.ADDRESS + i);
+				}
+				remote = InetAddress.getByAddress(bytes).getHostAddress();
+			}
+			int method = buffer.get(offset + BinaryAccessLog.METHOD);
+			String path = paths.get(buffer.getInt(offset + BinaryAccessLog.PATH));
+			line.setLength(0);
+			char separator = csv ? ',' : ' ';
+			line.append(Instant.ofEpochMilli(time)).append(separator);
+			line.append(remote).append(separator);
+			line.append(method >= 0 && method < METHODS.length ? METHODS[method].name() : "?").append(separator);
+			line.append(csv ? quote(path) : (path != null ? path : "-")).append(separator);
+			line.append(buffer.getShort(offset + BinaryAccessLog.STATUS)).append(separator);
+			line.append(buffer.getLong(offset + BinaryAccessLog.BYTES_IN)).append(separator);
+			line.append(buffer.getLong(offset + BinaryAccessLog.BYTES_OUT)).append(separator);
+			line.append(buffer.getLong(offset + BinaryAccessLog.LATENCY) / 1000).append('\n');
+			out.write(line.toString());
+		}
+	}
+
+	private static Map<Integer, String> readDictionary(File file) throws IOException {
+		Map<Integer, String> paths = new HashMap<Integer, String>();
+		if (!file.isFile()) {
+			return paths;
+		}
+		try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int tab = line.indexOf('\t');
+				if (tab > 0) {
+					paths.put(Integer.valueOf(line.substring(0, tab)), line.substring(tab + 1));
+				}
+			}
+		}
+		return paths;
+	}
+
+	private static String quote(String value) {
+		if (value == null) {
+			return "";
+		}
+		return '"' + value.replace("\"", "\"\"") + '"';
+	}
+}
@@ -30,6 +30,7 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import io.github.ilmich.floppyt.io.ExecutionStrategy;
 import io.github.ilmich.floppyt.util.HttpUtil;
 import io.github.ilmich.floppyt.util.Log;
 import io.github.ilmich.floppyt.web.http.protocol.HttpStatus;
@@ -45,6 +46,16 @@ public class HttpHandlerFactory {
 	private Map<Pattern, HttpRequestHandler> capturingHandlers = new HashMap<Pattern, HttpRequestHandler>();
 
 	private Map<Pattern, List<String>> patterns = new HashMap<Pattern, List<String>>();
+
+	/**
+	 * The route each capturing pattern was built from
+	 */
+	private Map<Pattern, String> templates = new HashMap<Pattern, String>();
+
+	/**
+	 * Execution strategies set for a single route, overriding the handler's one
+	 */
+	private Map<String, ExecutionStrategy> strategies = new HashMap<String, ExecutionStrategy>();
 	
 	private Pattern pathParamPattern = Pattern.compile("\\{(.*?)\\}");
 	
@@ -55,6 +66,11 @@ public class HttpHandlerFactory {
 			response.setStatus(HttpStatus.CLIENT_ERROR_NOT_FOUND);			
 			response.write("Requested URL: " + request.getRequestedPath() + " was not found");
 		}
+
+		@Override
+		public ExecutionStrategy getExecutionStrategy() {
+			return ExecutionStrategy.INLINE;
+		}
 		
 	};
 	
@@ -66,11 +82,21 @@ public class HttpHandlerFactory {
 			response.setHeader("Connection", "close");
 			response.write("Bad Request");
 		}
+
+		@Override
+		public ExecutionStrategy getExecutionStrategy() {
+			return ExecutionStrategy.INLINE;
+		}
 		
 	};
 	
 	private HttpRequestHandler httpContinueHandler = new HttpRequestHandler() {
 
+		@Override
+		public ExecutionStrategy getExecutionStrategy() {
+			return ExecutionStrategy.INLINE;
+		}
+
 		@Override
 		public void post(HttpServerRequest request, HttpServerResponse response) {
 			response.setStatus(HttpStatus.SUCCESS_CONTINUE);
@@ -93,7 +119,22 @@ public class HttpHandlerFactory {
 	}
 
 	public HttpHandlerFactory route(String path, HttpRequestHandler handler) {
+		return route(path, handler, null);
+	}
+
+	/**
+	 * Add a route processed with the given execution strategy
+	 * 
+	 * @param strategy the strategy for this route, or null to use the one of the
+	 *                 handler
+	 */
+	public HttpHandlerFactory route(String path, HttpRequestHandler handler, ExecutionStrategy strategy) {
 		Log.trace(TAG, "Adding route \"" + path + "\"");
+		if (strategy != null) {
+			strategies.put(path, strategy);
+		} else {
+			strategies.remove(path);
+		}
 		StringBuilder sb = new StringBuilder();
 		Matcher mt = pathParamPattern.matcher(path);
 		int start = 0;
@@ -113,6 +154,7 @@ public class HttpHandlerFactory {
 			Pattern pt = Pattern.compile(sb.toString());
 			capturingHandlers.put(pt, handler);
 			patterns.put(pt, capturing);
+			templates.put(pt, path);
 			Log.trace(TAG, "Capturing group route \"" +  sb.toString() + "\" added");
 		}
 		
@@ -126,6 +168,7 @@ public class HttpHandlerFactory {
 		}
 		
 		HttpRequestHandler rh = absoluteHandlers.get(request.getRequestedPath());
+		String route = rh != null ? request.getRequestedPath() : null;
 		if (rh == null) {
 			for (Pattern pt : capturingHandlers.keySet()) {
 				Matcher mt = pt.matcher(request.getRequestedPath());
@@ -136,6 +179,7 @@ public class HttpHandlerFactory {
 					}
 					((HttpServerRequest) request).setPathParams(parem);
 					rh = capturingHandlers.get(pt);
+					route = templates.get(pt);
 				}
 			}
 		}
@@ -145,7 +189,20 @@ public class HttpHandlerFactory {
 		if (request.expectContinue()) {
 			return httpContinueHandler;
 		}
+		((HttpServerRequest) request).setRoute(route);
 		return rh;
 	}
 
+	/**
+	 * Resolve the handler of the request (keeping it in the request for
+	 * processing) and return the strategy it must be executed with.
+	 */
+	public ExecutionStrategy getExecutionStrategy(Request request) {
+		HttpRequestHandler rh = getHandler(request);
+		((HttpServerRequest) request).setHandler(rh);
+		String route = ((HttpServerRequest) request).getRoute();
+		ExecutionStrategy strategy = route != null ? strategies.get(route) : null;
+		return strategy != null ? strategy : rh.getExecutionStrategy();
+	}
+
 }
@@ -24,24 +24,20 @@ SOFTWARE.
 package io.github.ilmich.floppyt.web.http;
 
 import java.nio.ByteBuffer;
-import java.nio.channels.SelectableChannel;
-import java.nio.channels.SocketChannel;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
 
+import io.github.ilmich.floppyt.io.ConnectionContext;
+import io.github.ilmich.floppyt.io.ExecutionStrategy;
 import io.github.ilmich.floppyt.io.Protocol;
-import io.github.ilmich.floppyt.metrics.Counter;
-import io.github.ilmich.floppyt.metrics.Metrics;
+import io.github.ilmich.floppyt.io.ConnectionContext.PendingResponse;
 import io.github.ilmich.floppyt.util.Log;
+import io.github.ilmich.floppyt.web.http.protocol.HttpStatus;
+import io.github.ilmich.floppyt.web.http.protocol.HttpVerb;
 
 public class HttpProtocol extends Protocol {
 
 	private static final String TAG = "HttpProtocol";
-	/**
-	 * a queue of half-baked (pending/unfinished) HTTP post request
-	 */
-	private final Map<SelectableChannel, HttpServerRequest> partials = new HashMap<SelectableChannel, HttpServerRequest>();
-
 	/**
 	 * Http request parser
 	 */
@@ -49,6 +45,19 @@ public class HttpProtocol extends Protocol {
 
 	private HttpHandlerFactory factory = null;
 
+	private BinaryAccessLog accessLog;
+
+	private final RequestMetrics metrics = new RequestMetrics();
+
+	/**
+	 * Pre-serialized 503, written when the server is overloaded
+	 */
+	private final ByteBuffer serviceUnavailable = ByteBuffer.wrap((HttpStatus.SERVER_ERROR_SERVICE_UNAVAILABLE.line()
+			+ "Retry-After: " + HttpServerDescriptor.OVERLOAD_RETRY_AFTER + "\r\n"
+			+ "Server: " + HttpServer.SERVER_VERSION + "\r\n"
+			+ "Content-Length: 0\r\n"
+			+ "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+
 	public HttpProtocol() {
 		super();		
 	}
@@ -58,45 +67,92 @@ public class HttpProtocol extends Protocol {
 		this.factory = factory;		
 	}
 
-	public Request onRead(final ByteBuffer buffer, SocketChannel client) {
-		HttpServerRequest request = parser.parseRequestBuffer(buffer, partials.get(client));
-		if (!request.isFinished()) {
-			partials.put(client, request);
-		} else {
-			partials.remove(client);
+	public Request onRead(final ByteBuffer buffer, ConnectionContext context) {
+		// a half-baked (pending/unfinished) request is kept by the connection
+		HttpServerRequest request = parser.parseRequestBuffer(buffer, (HttpServerRequest) context.getRequest());
+		context.setRequest(request.isFinished() ? null : request);
+		if (request instanceof MalFormedHttpRequest) { // can't find the next request
+			buffer.position(buffer.limit());
 		}
 		if (request.expectContinue() || request.isFinished()) {
-			request.setRemoteHost(client.socket().getInetAddress());
+			request.setRemoteHost(context.getRemoteHost());
+			request.setRemoteAddress(context.getRemoteAddress());
+			request.setReceivedAt(System.nanoTime());
 			return request;
 		}
 		return null;
 	}
 
-	public Response processRequest(final Request request) {		
+	@Override
+	public ExecutionStrategy getExecutionStrategy(final Request request) {
+		return factory.getExecutionStrategy(request);
+	}
+
+	@Override
+	public ByteBuffer getOverloadResponse() {
+		return HttpServerDescriptor.REJECT_WHEN_OVERLOADED ? serviceUnavailable.duplicate() : null;
+	}
+
+	public Response processRequest(final Request request) {
+		return processRequest(request, null);
+	}
+
+	@Override
+	public Response processRequest(final Request request, final PendingResponse pending) {
 		HttpServerResponse response = new HttpServerResponse(request.isKeepAlive());
-		HttpRequestHandler rh = (HttpRequestHandler) factory.getHandler(request);
+		if (pending != null && !"HTTP/1.0".equals(request.getVersion())) { // chunked needs HTTP/1.1
+			response.setPendingResponse(pending);
+		}
+		response.setHeader("Server", HttpServer.SERVER_VERSION); // before a handler flushes
+		if (HttpServerDescriptor.COMPRESS_RESPONSES) {
+			response.setAcceptEncoding(request.getHeader("Accept-Encoding"));
+		}
+		if (request.getMethod() == HttpVerb.GET || request.getMethod() == HttpVerb.HEAD) {
+			response.setIfNoneMatch(request.getHeader("If-None-Match"));
+		}
+		HttpRequestHandler rh = ((HttpServerRequest) request).getHandler();
+		if (rh == null) { // not resolved yet by getExecutionStrategy
+			rh = factory.getHandler(request);
+		}
 		
-		if (rh != null) {
-			rh.handle((HttpServerRequest) request, response);
-		} 
+		try {
+			if (rh != null) {
+				rh.handle((HttpServerRequest) request, response);
+			}
+		} catch (RuntimeException | Error ex) {
+			response.abort();
+			throw ex;
+		}
 		
-		Map<String, String> labels = new HashMap<String, String>();
-		labels.put("method", request.getMethod().toString());
-		labels.put("status", String.valueOf(response.getStatus().code()));
-		Counter ct = Metrics.getCounter("http_request_total", labels);
-		ct.increment();
-		if (response.getStatus().code() > 400) {
-			Log.error(TAG, request.getRemoteHost() + " \"" + request.getRequestLine() + "\" " +
-					response.getStatus().code() + " " + response.getResponseData().position() + " \"" + request.getUserAgent() + "\"");
-		} else {
-			Log.debug(TAG, request.getRemoteHost() + " \"" + request.getRequestLine() + "\" " +
-				response.getStatus().code() + " " + response.getResponseData().position() + " \"" + request.getUserAgent() + "\"");
+		if (response.getStatus().code() >= 400) { // always logged
+			if (Log.ERROR) {
+				Log.error(TAG, accessLogLine(request, response));
+			}
+		} else if (Log.DEBUG && (HttpServerDescriptor.ACCESS_LOG_SAMPLING <= 1
+				|| ThreadLocalRandom.current().nextInt(HttpServerDescriptor.ACCESS_LOG_SAMPLING) == 0)) {
+			Log.debug(TAG, accessLogLine(request, response));
 		}
-		response.setHeader("Server", HttpServer.SERVER_VERSION);
 		response.prepare();
+		metrics.record((HttpServerRequest) request, response);
+		if (accessLog != null) {
+			accessLog.log((HttpServerRequest) request, response);
+		}
 		return response;
 	}
 
+	private static String accessLogLine(final Request request, final HttpServerResponse response) {
+		return request.getRemoteHost() + " \"" + request.getRequestLine() + "\" " + response.getStatus().code() + " "
+				+ response.getResponseData().position() + " \"" + request.getUserAgent() + "\"";
+	}
+
+	public BinaryAccessLog getAccessLog() {
+		return accessLog;
+	}
+
+	public void setAccessLog(BinaryAccessLog accessLog) {
+		this.accessLog = accessLog;
+	}
+
 	public HttpHandlerFactory getFactory() {
 		return factory;
 	}
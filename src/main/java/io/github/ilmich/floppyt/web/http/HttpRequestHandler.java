@@ -23,6 +23,7 @@ SOFTWARE.
 */
 package io.github.ilmich.floppyt.web.http;
 
+import io.github.ilmich.floppyt.io.ExecutionStrategy;
 import io.github.ilmich.floppyt.util.ExceptionUtils;
 import io.github.ilmich.floppyt.util.Log;
 import io.github.ilmich.floppyt.web.http.protocol.HttpStatus;
@@ -36,6 +37,17 @@ public abstract class HttpRequestHandler {
 		return null;
 	}
 
+	/**
+	 * Where this handler is executed. Defaults to
+	 * {@link ExecutionStrategy#getDefault()}, override it returning
+	 * {@link ExecutionStrategy#INLINE} for handlers that never block. The
+	 * strategy can also be set for a single route with
+	 * {@link HttpServer#route(String, HttpRequestHandler, ExecutionStrategy)}.
+	 */
+	public ExecutionStrategy getExecutionStrategy() {
+		return ExecutionStrategy.getDefault();
+	}
+
 	public void get(HttpServerRequest request, HttpServerResponse response) {
 		response.setStatus(HttpStatus.SERVER_ERROR_NOT_IMPLEMENTED);
 		response.write("Not implemented");
@@ -136,9 +136,11 @@ public class HttpRequestParser {
 
 		}
 
+		context.setBuffer(null); // the buffer is given back once parsed
+
 		// There was an error while parsing request
 		if (status < 0) {
-			result = MalFormedHttpRequest.instance;
+			result = new MalFormedHttpRequest(); // not shared, it gets the address of the client
 		}
 
 		return result;
@@ -146,10 +148,9 @@ public class HttpRequestParser {
 
 	private int pushChunkToBody(ByteBuffer buffer, HttpServerRequest result, HttpParsingContext context) {
 		int size = (buffer.remaining() > context.chunkSize ? context.chunkSize : buffer.remaining());
-		result.getBodyBuffer().put(buffer.array(), buffer.position(), size);
+		result.getBodyBuffer().put(buffer, size);
 		context.chunkSize = context.chunkSize - size;
 
-		buffer.position(buffer.position() + size);
 		// Chunk not complete we need more data
 		if (context.chunkSize > 0) {
 			return 0;
@@ -169,9 +170,9 @@ public class HttpRequestParser {
 		}
 
 		if (body.position() + buffer.remaining() > size) {
-			body.put(buffer.array(), buffer.position(), size - body.position());
+			body.put(buffer, size - body.position());
 		} else {
-			body.put(buffer.array(), buffer.position(), buffer.remaining());
+			body.put(buffer, buffer.remaining());
 		}
 	}
 }
\ No newline at end of file
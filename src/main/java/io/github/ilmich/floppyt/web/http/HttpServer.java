@@ -23,14 +23,19 @@ SOFTWARE.
 */
 package io.github.ilmich.floppyt.web.http;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
+import io.github.ilmich.floppyt.io.ExecutionStrategy;
 import io.github.ilmich.floppyt.io.PlainIOHandler;
 import io.github.ilmich.floppyt.io.SSLIOHandler;
 import io.github.ilmich.floppyt.io.connectors.ServerConnector;
+import io.github.ilmich.floppyt.io.connectors.ServerConnectorGroup;
+import io.github.ilmich.floppyt.web.handler.GzipPrecompressor;
 
 public class HttpServer {
 
@@ -59,21 +64,48 @@ public class HttpServer {
 		while (iter.hasNext()) {
 			iter.next().shutDown();
 		}		
+		if (hp.getAccessLog() != null) {
+			hp.getAccessLog().close();
+		}
 	}
 	
 	public HttpServer route(String route, HttpRequestHandler handler) {
+		return this.route(route, handler, null);
+	}
+
+	public HttpServer route(String route, HttpRequestHandler handler, ExecutionStrategy strategy) {
 		if (this.hp.getFactory() == null) {
 			this.hp.setFactory(new HttpHandlerFactory());
 		}
-		this.hp.getFactory().route(route, handler);
+		this.hp.getFactory().route(route, handler, strategy);
 		return this;
 	}
 	
+	/**
+	 * Builds the missing or stale precompressed (.gz) siblings of the static files
+	 * of the directory tree, before the server starts.
+	 */
+	public HttpServer precompress(String root) {
+		GzipPrecompressor.precompress(new File(root));
+		return this;
+	}
+
+	/**
+	 * Logs every request in binary segment files of the directory, read back with
+	 * {@link BinaryAccessLogReader}
+	 */
+	public HttpServer accessLog(String dir) throws IOException {
+		hp.setAccessLog(new BinaryAccessLog(new File(dir)));
+		return this;
+	}
+
 	public HttpServer listen(InetSocketAddress addr) {
-		PlainIOHandler pih = new PlainIOHandler(hp);
-		ServerConnector sc = new ServerConnector(pih);
-		sc.bind(addr);
-		this.connectors.add(sc);
+		ServerConnectorGroup group = new ServerConnectorGroup(HttpServerDescriptor.LEAST_LOADED_BALANCING);
+		for (int i = 0; i < Math.max(1, HttpServerDescriptor.EVENT_LOOPS); i++) {
+			group.add(new ServerConnector(new PlainIOHandler(hp)));
+		}
+		group.bind(addr, HttpServerDescriptor.REUSE_PORT);
+		this.connectors.addAll(group.getConnectors());
 		return this;
 	}
 
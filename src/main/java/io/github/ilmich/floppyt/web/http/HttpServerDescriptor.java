@@ -45,17 +45,168 @@ public class HttpServerDescriptor {
 	 */
 	public static int READ_BUFFER_SIZE = 1024; // 1024 bytes
 
+	/**
+	 * Upper bound of the read buffer of a connection. The read size of each
+	 * connection starts at READ_BUFFER_SIZE and adapts to its traffic.
+	 */
+	public static int MAX_READ_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Maximum number of reads of a connection per readable event, so that a busy
+	 * connection doesn't starve the others of its event loop
+	 */
+	public static int MAX_READS_PER_EVENT = 16;
+
+	/**
+	 * Maximum number of pipelined requests of a connection waiting for their
+	 * response: reads of the connection are suspended beyond it
+	 */
+	public static int MAX_PIPELINED_REQUESTS = 16;
+
 	/**
 	 * Size of the write (send) buffer.
 	 */
 	public static int WRITE_BUFFER_SIZE = 1024; // 1024 bytes
 
+	/**
+	 * Bytes of a streamed response waiting to be written beyond which the handler
+	 * producing it is paused, until they drop to WRITE_LOW_WATERMARK
+	 */
+	public static int WRITE_HIGH_WATERMARK = 256 * 1024;
+
+	/**
+	 * Bytes of a streamed response waiting to be written below which the paused
+	 * handler producing it is resumed
+	 */
+	public static int WRITE_LOW_WATERMARK = 64 * 1024;
+
+	/**
+	 * Number of event loops (selector threads) serving each listening address.
+	 * Defaults to one per available core.
+	 */
+	public static int EVENT_LOOPS = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * When true accepted connections are handed to the event loop with the fewest
+	 * connections, otherwise the event loops are picked round-robin.
+	 */
+	public static boolean LEAST_LOADED_BALANCING = false;
+
+	/**
+	 * When true (and supported by the platform, e.g. Linux) every event loop
+	 * listens on its own socket bound with SO_REUSEPORT and accepts its own
+	 * connections, instead of a single acceptor dispatching to the others.
+	 */
+	public static boolean REUSE_PORT = false;
+
+	/**
+	 * When true handlers run on a virtual thread per request instead of the
+	 * worker pool (requires Java 21 or later, ignored otherwise). Handlers and
+	 * routes with an explicit execution strategy are not affected.
+	 */
+	public static boolean USE_VIRTUAL_THREADS = false;
+
 	public static int MIN_THREADS_PROCESSOR = 1;
 
 	public static int MAX_THREADS_PROCESSOR = 1024;
 
 	public static int THREAD_PROCESSOR_IDLE_TIME = 60;
 
+	/**
+	 * Debug aid: track the pooled buffers of the event loops and periodically log
+	 * the ones never given back, with the stack trace of their acquisition
+	 */
+	public static boolean BUFFER_LEAK_DETECTION = false;
+
+	/**
+	 * Number of requests waiting for a worker thread once all the
+	 * MAX_THREADS_PROCESSOR threads are busy (0 disables the queue). When the
+	 * queue is full the connections of the refused requests stop being read
+	 * until there is room again.
+	 */
+	public static int REQUEST_QUEUE_DEPTH = 1024;
+
+	/**
+	 * When true a request refused by the saturated worker pool gets an immediate
+	 * 503 Service Unavailable, written by the event loop, instead of waiting for
+	 * room in the queue (plain connections only)
+	 */
+	public static boolean REJECT_WHEN_OVERLOADED = false;
+
+	/**
+	 * Value (seconds) of the Retry-After header of the 503 sent when overloaded
+	 */
+	public static int OVERLOAD_RETRY_AFTER = 1;
+
 	public static final long MAX_BODY = 1024000;
 
+	/**
+	 * Total bytes of the static files kept in memory by the StaticContentHandler,
+	 * least recently used first out (0 disables the cache)
+	 */
+	public static long STATIC_CACHE_SIZE = 0;
+
+	/**
+	 * Files larger than this are never cached, but sent from the disk
+	 */
+	public static int STATIC_CACHE_MAX_FILE_SIZE = 64 * 1024;
+
+	/**
+	 * Milliseconds a cached file is trusted before its size and modification time
+	 * are checked again
+	 */
+	public static int STATIC_CACHE_REVALIDATE = 1000;
+
+	/**
+	 * When true responses are compressed (gzip or deflate) for the clients
+	 * accepting it, if their content type is textual and they are large enough
+	 */
+	public static boolean COMPRESS_RESPONSES = false;
+
+	/**
+	 * Compression level, from 1 (fastest) to 9 (smallest)
+	 */
+	public static int COMPRESSION_LEVEL = 6;
+
+	/**
+	 * Smaller responses are not compressed
+	 */
+	public static int COMPRESSION_MIN_SIZE = 1024;
+
+	/**
+	 * Deflaters kept for reuse between compressed responses, per encoding; the
+	 * others are ended once used. Read when the first response is compressed.
+	 * Defaults to two per available core.
+	 */
+	public static int COMPRESSION_POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+
+	/**
+	 * ETag dynamic responses with a checksum of their body, answering 304 Not
+	 * Modified to the clients that already have it
+	 */
+	public static boolean CREATE_ETAGS = false;
+
+	/**
+	 * Log (at debug level) 1 in N successful requests, chosen at random; the
+	 * failed ones are always logged
+	 */
+	public static int ACCESS_LOG_SAMPLING = 1;
+
+	/**
+	 * Size of the segment files of the binary access log
+	 */
+	public static int ACCESS_LOG_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * Start a new segment of the binary access log after this time (ms), even if
+	 * the current one is not full
+	 */
+	public static long ACCESS_LOG_ROTATE_INTERVAL = 60 * 60 * 1000;
+
+	/**
+	 * Serve the same metrics exposition to the scrapes of this period (ms),
+	 * instead of encoding it for each one; 0 disables the cache
+	 */
+	public static long METRICS_CACHE_MILLIS = 0;
+
 }
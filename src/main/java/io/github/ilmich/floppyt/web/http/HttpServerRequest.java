@@ -53,6 +53,7 @@ public class HttpServerRequest implements Request {
 	private String body;
 	private boolean keepAlive;
 	private InetAddress remoteHost;
+	private byte[] remoteAddress;
 	private InetAddress serverHost;
 	private int remotePort;
 	private int serverPort;
@@ -63,6 +64,9 @@ public class HttpServerRequest implements Request {
 	private DynamicByteBuffer bodyBuffer;
 	private Charset mainCharset = Charset.forName("ASCII");
 	private Map<String, Object> ctx = new HashMap<String, Object>();
+	private HttpRequestHandler handler;
+	private String route;
+	private long receivedAt; // System.nanoTime()
 
 	/** Regex to parse HttpRequest Request Line */
 	public static final Pattern REQUEST_LINE_PATTERN = Pattern.compile(" ");
@@ -166,6 +170,14 @@ public class HttpServerRequest implements Request {
 		return remoteHost;
 	}
 
+	/**
+	 * @return the bytes of the remote address, in network order, shared by the
+	 *         requests of the connection: not to be modified
+	 */
+	public byte[] getRemoteAddress() {
+		return remoteAddress;
+	}
+
 	@Override
 	public InetAddress getServerHost() {
 		return serverHost;
@@ -185,6 +197,10 @@ public class HttpServerRequest implements Request {
 		remoteHost = host;
 	}
 
+	protected void setRemoteAddress(byte[] address) {
+		remoteAddress = address;
+	}
+
 	protected void setServerHost(InetAddress host) {
 		serverHost = host;
 	}
@@ -467,4 +483,35 @@ public class HttpServerRequest implements Request {
 	public String getPathParam(String key) {
 		return pathParams.get(key);
 	}
+
+	/**
+	 * @return the route (as declared, e.g. "/user/{id}") matched by this request,
+	 *         or null if no route matched
+	 */
+	public String getRoute() {
+		return route;
+	}
+
+	protected void setRoute(String route) {
+		this.route = route;
+	}
+
+	/**
+	 * @return when the request was read, in {@link System#nanoTime()}
+	 */
+	public long getReceivedAt() {
+		return receivedAt;
+	}
+
+	protected void setReceivedAt(long receivedAt) {
+		this.receivedAt = receivedAt;
+	}
+
+	protected HttpRequestHandler getHandler() {
+		return handler;
+	}
+
+	protected void setHandler(HttpRequestHandler handler) {
+		this.handler = handler;
+	}
 }
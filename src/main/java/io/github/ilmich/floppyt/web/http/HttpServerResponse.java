@@ -24,17 +24,20 @@ SOFTWARE.
 package io.github.ilmich.floppyt.web.http;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.channels.FileChannel;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.net.ssl.SSLEngine;
 
-import io.github.ilmich.floppyt.util.Closeables;
+import io.github.ilmich.floppyt.io.ConnectionContext.PendingResponse;
+import io.github.ilmich.floppyt.io.FileTransfer;
+import io.github.ilmich.floppyt.io.ResponseStream;
 import io.github.ilmich.floppyt.util.CookieUtil;
 import io.github.ilmich.floppyt.util.DateUtil;
 import io.github.ilmich.floppyt.util.DynamicByteBuffer;
@@ -47,23 +50,44 @@ public class HttpServerResponse implements Response {
 
 	private static final String TAG = "HttpResponse";
 
+	private static final byte[] CRLF = { '\r', '\n' };
+	private static final byte[] LAST_CHUNK = { '0', '\r', '\n', '\r', '\n' };
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
 	private HttpStatus status = HttpStatus.SUCCESS_OK;
 
 	private final Map<String, String> headers = new HashMap<String, String>();
 	private final Map<String, String> cookies = new HashMap<String, String>();
 	private boolean headersCreated = false;
 	private DynamicByteBuffer responseData = DynamicByteBuffer.allocate(HttpServerDescriptor.WRITE_BUFFER_SIZE);
-	private FileChannel file;
+	private final ByteBuffer[] byteBuffers = new ByteBuffer[3]; // headers, data, content
+	private ByteBuffer content;
+	private FileTransfer file;
 	private Charset mainCharset = Charset.forName("ASCII");
 
-	private boolean createETag;
+	private boolean createETag = HttpServerDescriptor.CREATE_ETAGS;
+	private String ifNoneMatch; // of the request
 	private SSLEngine sslEngine;
 
+	private PendingResponse pending; // the place of the response in its connection
+	private ResponseStream stream; // opened by the first flush
+	private boolean streaming; // headers sent, the body follows in chunks
+	private boolean finished;
+	private long streamed; // bytes of the chunks sent
+
+	private String acceptEncoding; // of the request
+	private ResponseCompressor compressor; // of a streamed response
+
 	@Override
 	public DynamicByteBuffer getResponseData() {
 		return responseData;
 	}
 
+	@Override
+	public ByteBuffer[] getByteBuffers() {
+		return byteBuffers;
+	}
+
 	public HttpServerResponse(boolean keepAlive) {
 		headers.put("Date", DateUtil.getCurrentAsString());
 		setKeepAlive(keepAlive);
@@ -92,6 +116,33 @@ public class HttpServerResponse implements Response {
 		createETag = create;
 	}
 
+	/**
+	 * Lets the response be answered with 304 Not Modified when the client already
+	 * has its ETag
+	 * 
+	 * @param ifNoneMatch the If-None-Match header of the request
+	 */
+	public void setIfNoneMatch(String ifNoneMatch) {
+		this.ifNoneMatch = ifNoneMatch;
+	}
+
+	/**
+	 * Sets the ETag of the response. A handler knowing the version of the resource
+	 * can call it before generating the body, and skip it when the client's copy
+	 * is current.
+	 * 
+	 * @return true if the request already has this ETag: the status is set to 304
+	 *         Not Modified and no body is sent
+	 */
+	public boolean setEtag(String etag) {
+		setHeader("ETag", etag);
+		if (status == HttpStatus.SUCCESS_OK && HttpUtil.matchesEtag(ifNoneMatch, etag)) {
+			setStatus(HttpStatus.REDIRECTION_NOT_MODIFIED);
+			return true;
+		}
+		return false;
+	}
+
 	public Response setHeader(String header, String value) {
 		headers.put(header, value);
 		return this;
@@ -179,22 +230,92 @@ public class HttpServerResponse implements Response {
 	}
 
 	public void prepare() {
-		setEtagAndContentLength();
+		if (streaming) { // already sent
+			finish();
+			byteBuffers[0] = EMPTY;
+			byteBuffers[1] = EMPTY;
+			byteBuffers[2] = EMPTY;
+			return;
+		}
+		if (content == null && file == null) {
+			compress();
+			if (createETag && responseData.position() > 0 && !headers.containsKey("ETag")) {
+				setEtag(HttpUtil.getEtag(responseData.array(), 0, responseData.position()));
+			}
+		}
+		if (status == HttpStatus.REDIRECTION_NOT_MODIFIED) { // the client has the body
+			responseData.clear();
+			content = null;
+			if (file != null) {
+				file.close();
+				file = null;
+			}
+			headers.remove("Content-Length"); // a cache would take it for the length of its copy
+		} else {
+			setContentLength();
+		}
 		if (!headersCreated) {
-			String initial = createInitalLineAndHeaders();
-			responseData.prepend(initial);
+			// headers get their own buffer and go out with the body in a single
+			// gathering write, instead of copying the body behind them
+			byteBuffers[0] = ByteBuffer.wrap(createInitalLineAndHeaders().getBytes(mainCharset));
 			headersCreated = true;
 		}
 		responseData.flip();
+		byteBuffers[1] = responseData.getByteBuffer();
+		byteBuffers[2] = content != null ? content : EMPTY;
 	}
 
-	private void setEtagAndContentLength() {
-		setHeader("Content-Length", String.valueOf(responseData.position()));
-		if (responseData.position() > 0 && createETag) {
-			setHeader("Etag", HttpUtil.getEtag(responseData.array()));						
+	/**
+	 * Lets the response be compressed with an encoding the request accepts
+	 * 
+	 * @param acceptEncoding the Accept-Encoding header of the request
+	 */
+	public void setAcceptEncoding(String acceptEncoding) {
+		this.acceptEncoding = acceptEncoding;
+	}
+
+	/**
+	 * @param length the length of the body, -1 if unknown (streamed)
+	 * @return the encoding to compress the body with, set as Content-Encoding, or
+	 *         null
+	 */
+	private String getCompression(long length) {
+		if (!HttpServerDescriptor.COMPRESS_RESPONSES || headers.containsKey("Content-Encoding")
+				|| !ResponseCompressor.isCompressible(headers.get("Content-Type"))
+				|| (length >= 0 && length < HttpServerDescriptor.COMPRESSION_MIN_SIZE)) {
+			return null;
+		}
+		setHeader("Vary", "Accept-Encoding"); // compressed or not depending on the request
+		String encoding = ResponseCompressor.negotiate(acceptEncoding);
+		if (encoding != null) {
+			setHeader("Content-Encoding", encoding);
+		}
+		return encoding;
+	}
+
+	private void compress() {
+		String encoding = getCompression(responseData.position());
+		if (encoding != null) {
+			responseData.flip();
+			ByteBuffer compressed = new ResponseCompressor(encoding).compress(responseData.getByteBuffer(), true);
+			compressed.position(compressed.limit()).limit(compressed.capacity());
+			responseData = DynamicByteBuffer.wrap(compressed);
 		}
 	}
 
+	private void setContentLength() {
+		long length = responseData.position();
+		if (content != null) {
+			length += content.remaining();
+		}
+		if (file != null) {
+			length += file.getLength();
+		} else if (length == 0 && headers.containsKey("Content-Length")) { // set by the handler (HEAD)
+			return;
+		}
+		setHeader("Content-Length", String.valueOf(length));
+	}
+
 	private String createInitalLineAndHeaders() {
 		StringBuilder sb = new StringBuilder(status.line());
 		for (Map.Entry<String, String> header : headers.entrySet()) {
@@ -211,28 +332,50 @@ public class HttpServerResponse implements Response {
 		return sb.toString();
 	}
 
-	/**
-	 * Experimental support.
-	 */
 	@Override
 	public long write(File file) {
-		// setHeader("Etag", HttpUtil.getEtag(file));
-		setHeader("Content-Length", String.valueOf(file.length()));
-		FileInputStream in = null;
 		try {
-			in = new FileInputStream(file);
-			this.file = in.getChannel();
+			return write(FileTransfer.open(file).addRegion(0, file.length()));
 		} catch (IOException e) {
 			Log.error(TAG, "Error writing (static file " + file.getAbsolutePath() + ") to response: " + e.getMessage());
-			// If an exception occurs here we should ensure that file is closed
-			Closeables.closeQuietly(in);
 		}
 
 		return 0;
 	}
-	
+
 	@Override
-	public FileChannel getFile() {
+	public Response write(ByteBuffer content) {
+		this.content = content;
+		return this;
+	}
+
+	@Override
+	public long write(FileTransfer transfer) {
+		if (file != null) {
+			file.close();
+		}
+		file = transfer;
+		return transfer.getLength();
+	}
+
+	/**
+	 * @return the bytes of the response, headers included, once prepared
+	 */
+	public long getSize() {
+		long size = streamed;
+		for (ByteBuffer buffer : byteBuffers) {
+			if (buffer != null) {
+				size += buffer.remaining();
+			}
+		}
+		if (file != null) {
+			size += file.getLength();
+		}
+		return size;
+	}
+
+	@Override
+	public FileTransfer getFileTransfer() {
 		return file;
 	}
 
@@ -244,20 +387,123 @@ public class HttpServerResponse implements Response {
 		this.responseData.clear();
 		this.headers.clear();
 		this.headersCreated = false;
+		this.byteBuffers[0] = null;
+		this.byteBuffers[1] = null;
+		this.byteBuffers[2] = null;
+		this.content = null;
 		this.cookies.clear();
-		this.file = null;
+		if (this.file != null) {
+			this.file.close();
+			this.file = null;
+		}
 	}
 
+	/**
+	 * Binds the response to its connection, so that it can be streamed
+	 */
+	public void setPendingResponse(PendingResponse pending) {
+		this.pending = pending;
+	}
+
+	/**
+	 * @return true if the response has been flushed, and so is being streamed
+	 */
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * Sends the data written so far as a chunk (Transfer-Encoding: chunked), after
+	 * the status line and headers the first time: headers set afterwards are
+	 * ignored, files are not supported. The caller is paused while the client
+	 * doesn't keep up. A response not bound to a connection, or to an HTTP/1.0
+	 * one, is sent once complete instead.
+	 * 
+	 * @return the number of bytes handed to the connection, -1 if it's closed
+	 */
 	@Override
 	public long flush() {
-		// TODO Auto-generated method stub
-		return 0;
+		return flush(false);
 	}
 
+	/**
+	 * Sends the rest of a streamed response and the last chunk. A response not
+	 * flushed before is sent once complete as usual.
+	 */
 	@Override
 	public long finish() {
-		// TODO Auto-generated method stub
-		return 0;
+		if (!streaming) {
+			return 0;
+		}
+		return flush(true);
+	}
+
+	private long flush(boolean last) {
+		if (pending == null || finished) {
+			return 0;
+		}
+		List<ByteBuffer> chunk = new ArrayList<ByteBuffer>(5);
+		if (!streaming) {
+			stream = pending.openStream();
+			String encoding = getCompression(-1);
+			if (encoding != null) {
+				compressor = new ResponseCompressor(encoding);
+			}
+			headers.remove("Content-Length");
+			setHeader("Transfer-Encoding", "chunked");
+			chunk.add(ByteBuffer.wrap(createInitalLineAndHeaders().getBytes(mainCharset)));
+			headersCreated = true;
+			streaming = true;
+		}
+		ByteBuffer data = EMPTY;
+		if (responseData.position() > 0) {
+			responseData.flip();
+			data = responseData.getByteBuffer();
+		}
+		if (compressor != null && (data.hasRemaining() || last)) {
+			data = compressor.compress(data, last); // a copy
+			responseData.clear();
+		} else if (data.hasRemaining()) {
+			// the data sent belongs to the connection now
+			responseData = DynamicByteBuffer.allocate(HttpServerDescriptor.WRITE_BUFFER_SIZE);
+		}
+		if (data.hasRemaining()) {
+			chunk.add(ByteBuffer.wrap((Integer.toHexString(data.remaining()) + "\r\n").getBytes(mainCharset)));
+			chunk.add(data);
+			chunk.add(ByteBuffer.wrap(CRLF));
+		}
+		if (last) {
+			chunk.add(ByteBuffer.wrap(LAST_CHUNK));
+			finished = true;
+			compressor = null; // released
+		}
+		if (chunk.isEmpty()) {
+			return 0;
+		}
+		for (ByteBuffer buffer : chunk) {
+			streamed += buffer.remaining();
+		}
+		long written = stream.write(chunk.toArray(new ByteBuffer[chunk.size()]));
+		if (written < 0 && compressor != null) { // the client is gone
+			compressor.release();
+			compressor = null;
+		}
+		return written;
+	}
+
+	/**
+	 * Drops a response that won't be sent, its handler having failed: the
+	 * compressor of a streamed response and the file to send are released
+	 */
+	public void abort() {
+		if (compressor != null) {
+			compressor.release();
+			compressor = null;
+		}
+		if (file != null) {
+			file.close();
+			file = null;
+		}
 	}
 
 	@Override
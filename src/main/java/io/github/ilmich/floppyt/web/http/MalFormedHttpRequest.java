@@ -27,10 +27,16 @@ import java.util.HashMap;
 
 public class MalFormedHttpRequest extends HttpServerRequest {
 
+	/**
+	 * @deprecated the parser returns a new instance for each malformed request,
+	 *             which carries its own address and time: test the requests
+	 *             with instanceof
+	 */
+	@Deprecated
 	public static final MalFormedHttpRequest instance = new MalFormedHttpRequest();
 
 	/* Dummy HttpRequest that represents a malformed client HTTP request */
-	private MalFormedHttpRequest() {
+	MalFormedHttpRequest() {
 		super("GET / Malformed request\r\n", new HashMap<String, String>(), "");
 	}
 
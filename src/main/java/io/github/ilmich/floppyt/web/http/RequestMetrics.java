@@ -0,0 +1,116 @@
+/*
+MIT License
+
+Copyright (c) 2020 Michele Zuccalà
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package io.github.ilmich.floppyt.web.http;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.github.ilmich.floppyt.metrics.Counter;
+import io.github.ilmich.floppyt.metrics.Histogram;
+import io.github.ilmich.floppyt.metrics.MetricFamily;
+import io.github.ilmich.floppyt.metrics.Metrics;
+import io.github.ilmich.floppyt.web.http.protocol.HttpStatus;
+import io.github.ilmich.floppyt.web.http.protocol.HttpVerb;
+
+/**
+ * The metrics of the requests: a counter by method and status, and histograms
+ * of the duration and of the response size by route template (not by path, to
+ * bound their number), method and status class. The metrics are bound the
+ * first time they are needed and kept in arrays: recording a request allocates
+ * nothing. Threads racing to bind a metric get the same one.
+ */
+class RequestMetrics {
+
+	/**
+	 * 16 µs to 34 s, two buckets per power of two
+	 */
+	private static final Histogram.Buckets DURATION_BUCKETS = Histogram.Buckets.logLinear(14, 35, 1, 1e-9);
+
+	/**
+	 * 64 bytes to 128 MB, one bucket per power of two
+	 */
+	private static final Histogram.Buckets SIZE_BUCKETS = Histogram.Buckets.logLinear(6, 27, 0, 1);
+
+	private static final MetricFamily<Counter> REQUESTS = Metrics.counter("http_request_total", "method", "status");
+
+	private static final MetricFamily<Histogram> DURATION = Metrics.histogram("http_request_duration_seconds",
+			DURATION_BUCKETS, "route", "method", "status");
+
+	private static final MetricFamily<Histogram> SIZE = Metrics.histogram("http_response_size_bytes", SIZE_BUCKETS,
+			"route", "method", "status");
+
+	private static final String[] STATUS_CLASSES = { "0xx", "1xx", "2xx", "3xx", "4xx", "5xx" };
+
+	/**
+	 * Label of the requests matching no route
+	 */
+	private static final String NO_ROUTE = "none";
+
+	private static final HttpVerb[] METHODS = HttpVerb.values();
+	private static final HttpStatus[] STATUSES = HttpStatus.values();
+
+	private final Counter[] requests = new Counter[METHODS.length * STATUSES.length];
+
+	/**
+	 * By route: the duration histograms by method and status class, then the size
+	 * ones
+	 */
+	private final ConcurrentHashMap<String, Histogram[]> routes = new ConcurrentHashMap<String, Histogram[]>();
+
+	void record(final HttpServerRequest request, final HttpServerResponse response) {
+		final HttpVerb method = request.getMethod();
+		final HttpStatus status = response.getStatus();
+		final int index = method.ordinal() * STATUSES.length + status.ordinal();
+		Counter counter = requests[index];
+		if (counter == null) {
+			counter = REQUESTS.labels(method.toString(), String.valueOf(status.code()));
+			requests[index] = counter;
+		}
+		counter.increment();
+
+		final String route = request.getRoute() != null ? request.getRoute() : NO_ROUTE;
+		Histogram[] histograms = routes.get(route);
+		if (histograms == null) {
+			histograms = new Histogram[2 * METHODS.length * STATUS_CLASSES.length];
+			Histogram[] bound = routes.putIfAbsent(route, histograms);
+			if (bound != null) {
+				histograms = bound;
+			}
+		}
+		final int statusClass = Math.min(status.code() / 100, STATUS_CLASSES.length - 1);
+		final int duration = method.ordinal() * STATUS_CLASSES.length + statusClass;
+		final int size = METHODS.length * STATUS_CLASSES.length + duration;
+		Histogram histogram = histograms[duration];
+		if (histogram == null) {
+			histogram = DURATION.labels(route, method.toString(), STATUS_CLASSES[statusClass]);
+			histograms[duration] = histogram;
+		}
+		histogram.record(System.nanoTime() - request.getReceivedAt());
+		histogram = histograms[size];
+		if (histogram == null) {
+			histogram = SIZE.labels(route, method.toString(), STATUS_CLASSES[statusClass]);
+			histograms[size] = histogram;
+		}
+		histogram.record(response.getSize());
+	}
+}
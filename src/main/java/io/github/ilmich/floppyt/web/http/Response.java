@@ -24,10 +24,12 @@ SOFTWARE.
 package io.github.ilmich.floppyt.web.http;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 
 import javax.net.ssl.SSLEngine;
 
+import io.github.ilmich.floppyt.io.FileTransfer;
 import io.github.ilmich.floppyt.util.DynamicByteBuffer;
 import io.github.ilmich.floppyt.web.http.protocol.HttpStatus;
 
@@ -54,11 +56,38 @@ public interface Response {
 	Response write(byte[] data);
 
 	/**
-	 * Experimental support.
+	 * Sends the whole file as the body, after the data written if any.
 	 */
 	long write(File file);
-	
-	public FileChannel getFile();
+
+	/**
+	 * Sends the remaining bytes of the buffer after the data written, without
+	 * copying them: the buffer must not change until the response is sent, so a
+	 * shared buffer should be passed as a duplicate. It's not streamed.
+	 */
+	Response write(ByteBuffer content);
+
+	/**
+	 * Sends the regions of the file as the body, after the data written if any.
+	 * The response owns the transfer, and closes its file when done.
+	 */
+	long write(FileTransfer transfer);
+
+	/**
+	 * @return the file body, or null
+	 */
+	public FileTransfer getFileTransfer();
+
+	/**
+	 * @return the channel of the file body, or null
+	 * @deprecated a file body can be a set of regions, use
+	 *             {@link #getFileTransfer()}
+	 */
+	@Deprecated
+	public default FileChannel getFile() {
+		FileTransfer transfer = getFileTransfer();
+		return transfer == null ? null : transfer.getFile();
+	}
 
 	/**
 	 * Explicit flush.
@@ -84,6 +113,13 @@ public interface Response {
 
 	public DynamicByteBuffer getResponseData();	
 
+	/**
+	 * The buffers sent, in order, once the response is prepared: the initial line
+	 * and headers, then the body (the data written, then the content buffer). A
+	 * file body follows them.
+	 */
+	public ByteBuffer[] getByteBuffers();
+
 	public boolean isKeepAlive();
 
 	public Response setStatus(HttpStatus status);
@@ -0,0 +1,261 @@
+/*
+MIT License
+
+Copyright (c) 2020 Michele Zuccalà
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package io.github.ilmich.floppyt.web.http;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses a response body with gzip or deflate, as a whole or part by part
+ * (streamed responses). The {@link Deflater}s, which hold native memory, are
+ * shared by all the threads through a bounded pool and reset between
+ * responses: a compressor must be released once done with, or when its
+ * response is abandoned.
+ */
+public class ResponseCompressor {
+
+	public static final String GZIP = "gzip";
+	public static final String DEFLATE = "deflate";
+
+	private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+	private static final int GZIP_TRAILER = 8;
+
+	private static final ArrayBlockingQueue<Deflater> gzipDeflaters = new ArrayBlockingQueue<Deflater>(
+			Math.max(1, HttpServerDescriptor.COMPRESSION_POOL_SIZE));
+	private static final ArrayBlockingQueue<Deflater> deflateDeflaters = new ArrayBlockingQueue<Deflater>(
+			Math.max(1, HttpServerDescriptor.COMPRESSION_POOL_SIZE));
+
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private static final boolean cpuTime = threads.isCurrentThreadCpuTimeSupported();
+
+	private static final LongAdder responses = new LongAdder();
+	private static final LongAdder bytesIn = new LongAdder();
+	private static final LongAdder bytesOut = new LongAdder();
+	private static final LongAdder nanos = new LongAdder();
+
+	private final boolean gzip;
+	private Deflater deflater; // null once released
+	private final CRC32 crc;
+	private boolean started;
+
+	/**
+	 * @param encoding {@link #GZIP} or {@link #DEFLATE}
+	 */
+	public ResponseCompressor(String encoding) {
+		this.gzip = GZIP.equals(encoding);
+		this.deflater = acquire(gzip);
+		this.crc = gzip ? new CRC32() : null;
+		responses.increment();
+	}
+
+	/**
+	 * Compresses the input.
+	 * 
+	 * @param last true for the end of the body: the compressed data is complete
+	 *             and the compressor released, else what is compressed so far is
+	 *             flushed
+	 * @return the compressed data, ready to be read
+	 */
+	public ByteBuffer compress(ByteBuffer input, boolean last) {
+		if (deflater == null) {
+			throw new IllegalStateException("Compressor released");
+		}
+		try {
+			return deflate(input, last);
+		} finally {
+			if (last) {
+				release();
+			}
+		}
+	}
+
+	private ByteBuffer deflate(ByteBuffer input, boolean last) {
+		final long start = now();
+		final int length = input.remaining();
+		if (crc != null) {
+			crc.update(input.duplicate());
+		}
+		deflater.setInput(input);
+		if (last) {
+			deflater.finish();
+		}
+		ByteBuffer output = ByteBuffer.allocate(length + (length >> 12) + (length >> 14) + 64);
+		if (gzip && !started) {
+			output.put(GZIP_HEADER);
+		}
+		started = true;
+		while (true) {
+			deflater.deflate(output, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+			// a flush is complete when it doesn't fill the output
+			if (last ? deflater.finished() : output.hasRemaining()) {
+				break;
+			}
+			if (!output.hasRemaining()) {
+				output = grow(output, output.capacity());
+			}
+		}
+		if (last && gzip) {
+			if (output.remaining() < GZIP_TRAILER) {
+				output = grow(output, GZIP_TRAILER);
+			}
+			output.order(ByteOrder.LITTLE_ENDIAN);
+			output.putInt((int) crc.getValue());
+			output.putInt((int) deflater.getBytesRead());
+			output.order(ByteOrder.BIG_ENDIAN);
+		}
+		output.flip();
+
+		bytesIn.add(length);
+		bytesOut.add(output.remaining());
+		nanos.add(now() - start);
+		return output;
+	}
+
+	/**
+	 * Gives the deflater back to the pool, or ends it if the pool is full. Safe
+	 * to call more than once.
+	 */
+	public void release() {
+		Deflater released = deflater;
+		if (released == null) {
+			return;
+		}
+		deflater = null;
+		released.reset();
+		if (!(gzip ? gzipDeflaters : deflateDeflaters).offer(released)) {
+			released.end(); // frees the native memory now
+		}
+	}
+
+	private static ByteBuffer grow(ByteBuffer buffer, int more) {
+		ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() + more);
+		buffer.flip();
+		grown.put(buffer);
+		return grown;
+	}
+
+	private static long now() {
+		return cpuTime ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+	}
+
+	private static Deflater acquire(boolean gzip) {
+		Deflater deflater = (gzip ? gzipDeflaters : deflateDeflaters).poll();
+		if (deflater == null) {
+			return new Deflater(HttpServerDescriptor.COMPRESSION_LEVEL, gzip);
+		}
+		deflater.setLevel(HttpServerDescriptor.COMPRESSION_LEVEL);
+		return deflater;
+	}
+
+	/**
+	 * An encoding named in the header overrides "*", whatever their order; gzip
+	 * is preferred when both are accepted.
+	 * 
+	 * @param acceptEncoding the Accept-Encoding header of the request
+	 * @return the encoding to compress with, or null if the client accepts none
+	 */
+	public static String negotiate(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return null;
+		}
+		Boolean gzip = null, deflate = null, any = null; // accepted, refused (q=0) or not named
+		for (String coding : acceptEncoding.split(",")) {
+			String[] params = coding.split(";");
+			String name = params[0].trim().toLowerCase();
+			boolean accepted = true;
+			for (int i = 1; i < params.length; i++) {
+				String param = params[i].trim();
+				if (param.startsWith("q=") && param.substring(2).trim().matches("0(\\.0*)?")) {
+					accepted = false;
+				}
+			}
+			if (name.equals(GZIP)) {
+				gzip = accepted;
+			} else if (name.equals(DEFLATE)) {
+				deflate = accepted;
+			} else if (name.equals("*")) {
+				any = accepted;
+			}
+		}
+		if (gzip != null ? gzip : any == Boolean.TRUE) {
+			return GZIP;
+		}
+		if (deflate != null ? deflate : any == Boolean.TRUE) {
+			return DEFLATE;
+		}
+		return null;
+	}
+
+	/**
+	 * @return true if the Accept-Encoding header accepts gzip
+	 */
+	public static boolean acceptsGzip(String acceptEncoding) {
+		return GZIP.equals(negotiate(acceptEncoding));
+	}
+
+	/**
+	 * @return true if responses of the content type are worth compressing
+	 */
+	public static boolean isCompressible(String contentType) {
+		if (contentType == null) {
+			return false;
+		}
+		String type = contentType.toLowerCase();
+		return type.startsWith("text/") || type.contains("json") || type.contains("javascript")
+				|| type.contains("xml") || type.startsWith("image/svg");
+	}
+
+	public static long countResponses() {
+		return responses.sum();
+	}
+
+	/**
+	 * @return the bytes given to the compressors
+	 */
+	public static long countBytesIn() {
+		return bytesIn.sum();
+	}
+
+	/**
+	 * @return the bytes produced by the compressors
+	 */
+	public static long countBytesOut() {
+		return bytesOut.sum();
+	}
+
+	/**
+	 * @return the CPU time (ns) spent compressing, or the elapsed time if the JVM
+	 *         doesn't measure the CPU time of threads
+	 */
+	public static long countNanos() {
+		return nanos.sum();
+	}
+
+}
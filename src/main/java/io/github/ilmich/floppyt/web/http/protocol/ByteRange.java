@@ -0,0 +1,121 @@
+/*
+MIT License
+
+Copyright (c) 2020 Michele Zuccalà
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package io.github.ilmich.floppyt.web.http.protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A range of bytes of a representation, as requested by the Range header
+ * (RFC 7233): first and last byte positions, both included.
+ */
+public class ByteRange {
+
+	/**
+	 * Maximum number of ranges of a request: beyond it the whole representation
+	 * is sent, so that a request can't make the server send the same bytes over
+	 * and over
+	 */
+	public static final int MAX_RANGES = 16;
+
+	private final long first;
+	private final long last;
+
+	public ByteRange(long first, long last) {
+		this.first = first;
+		this.last = last;
+	}
+
+	public long getFirst() {
+		return first;
+	}
+
+	public long getLast() {
+		return last;
+	}
+
+	public long getLength() {
+		return last - first + 1;
+	}
+
+	/**
+	 * @return the value of the Content-Range header of the range
+	 */
+	public String toContentRange(long length) {
+		return "bytes " + first + "-" + last + "/" + length;
+	}
+
+	/**
+	 * Parses a Range header, such as <code>bytes=0-499,1000-,-500</code>.
+	 * 
+	 * @param header the value of the header
+	 * @param length the length of the representation
+	 * @return the satisfiable ranges, in the requested order, an empty list if
+	 *         none is, or null if the header is invalid or asks for too many ranges
+	 *         (to be ignored)
+	 */
+	public static List<ByteRange> parse(String header, long length) {
+		if (!header.startsWith("bytes=")) {
+			return null;
+		}
+		String[] specs = header.substring(6).split(",");
+		if (specs.length > MAX_RANGES) {
+			return null;
+		}
+		List<ByteRange> ranges = new ArrayList<ByteRange>(specs.length);
+		for (String spec : specs) {
+			spec = spec.trim();
+			int dash = spec.indexOf('-');
+			if (dash < 0) {
+				return null;
+			}
+			try {
+				String first = spec.substring(0, dash).trim();
+				String last = spec.substring(dash + 1).trim();
+				if (first.isEmpty()) { // suffix: the last bytes
+					long suffix = Long.parseLong(last);
+					if (suffix < 0) {
+						return null;
+					}
+					if (suffix > 0 && length > 0) {
+						ranges.add(new ByteRange(Math.max(0, length - suffix), length - 1));
+					}
+				} else {
+					long from = Long.parseLong(first);
+					long to = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+					if (from < 0 || to < from) {
+						return null;
+					}
+					if (from < length) {
+						ranges.add(new ByteRange(from, Math.min(to, length - 1)));
+					}
+				}
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		return ranges;
+	}
+
+}
@@ -55,6 +55,12 @@ public class MimeTypes {
 
 	/** text/xml */
 	public static final String TEXT_XML = "text/xml";
+
+	/** text/css */
+	public static final String TEXT_CSS = "text/css";
+
+	/** application/javascript */
+	public static final String APPLICATION_JAVASCRIPT = "application/javascript";
 	
 	private static final Map<String, String> mime = new HashMap<String, String>();
 	
@@ -62,6 +68,8 @@ public class MimeTypes {
 		mime.put(".html", TEXT_HTML);
 		mime.put(".xml", TEXT_XML);
 		mime.put(".json", APPLICATION_JSON);
+		mime.put(".css", TEXT_CSS);
+		mime.put(".js", APPLICATION_JAVASCRIPT);
 	}
 	
 	public static String getContentType(File file) {